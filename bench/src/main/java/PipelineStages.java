@@ -0,0 +1,154 @@
+/**************************************************************************
+ * Class PipelineStages.java - the benchmarks' way into the MeterProcess
+ * classes, which are all in the default package (see Stages).
+ *
+ * setUp() has MeterDataGenerator write a readings file with a reading
+ * every 1 to 3 days, so interpolation has gaps to fill, and a rates file
+ * with a tariff change every 90 days; the seed is the number of days, so
+ * each size always gets the same data. Each stage then runs on the output
+ * of the one before it, worked out once in advance.
+ *
+ * @author Colin Brough
+ * @version Dev_01
+ */
+
+import java.io.*;
+import java.nio.file.*;
+import java.time.LocalDate;
+
+import meterprocess.bench.Stages;
+
+public class PipelineStages implements Stages
+{
+    // Data sets start here
+    private static final LocalDate FIRSTDAY = LocalDate.of(1990, 1, 1);
+
+    private String outputDirectory;
+    private File readingsFile;
+    private File ratesFile;
+
+    private RatesData rates;
+    private UtilityColumns raw;		// Readings as parsed
+    private UtilityColumns filled;	// Interpolated, no costs
+    private UtilityData costed;		// Fully calculated, aggregates worked out
+    private LocalDate[] dates;		// Every day of the data
+    private UtilityData work;		// Fresh input for INTERPOLATE or COSTS
+
+    @Override
+    public void setUp(int days, Path dir) throws IOException
+    {
+        outputDirectory = dir.toString() + File.separator;
+        readingsFile = dir.resolve("MeterReadings.dat").toFile();
+        ratesFile    = dir.resolve("Rates.dat").toFile();
+
+        MeterDataGenerator generator = new MeterDataGenerator();
+        generator.setStart(FIRSTDAY);
+        generator.setDays(days);
+        generator.setMaxGap(3);
+        generator.setTariffDays(90);
+        generator.setRecentDays(0);
+        generator.setSeed(days);
+        generator.generate(dir.toFile());
+
+        rates = new RatesData(ratesFile);
+        UtilityData u = new UtilityData(rates);
+        u.setReadingsFromFile(readingsFile);
+        raw = u.columns().copy();
+        u.interpolateReadings();
+        filled = u.columns().copy();
+        u.calculateDailyCosts();
+        u.setOutputDirectories(outputDirectory, outputDirectory);
+        u.aggregates();
+        costed = u;
+
+        dates = new LocalDate[costed.size()];
+        for (int i = 0; i < dates.length; i++)
+        {
+            dates[i] = FIRSTDAY.plusDays(i);
+        }
+    }
+
+    @Override
+    public void reset(Stage stage)
+    {
+        if (stage == Stage.INTERPOLATE)
+        {
+            work = new UtilityData(raw.copy(), rates);
+        }
+        else if (stage == Stage.COSTS)
+        {
+            work = new UtilityData(filled.copy(), rates);
+        }
+    }
+
+    @Override
+    public Object run(Stage stage)
+    {
+        switch (stage)
+        {
+            case PARSE:
+            {
+                UtilityData u = new UtilityData(rates);
+                try
+                {
+                    u.setReadingsFromFile(readingsFile);
+                }
+                catch (IOException e)
+                {
+                    throw new UncheckedIOException(e);	// Read fine in setUp()
+                }
+                return u;
+            }
+            case RATESLOAD:
+                try
+                {
+                    return new RatesData(ratesFile);
+                }
+                catch (IOException e)
+                {
+                    throw new UncheckedIOException(e);
+                }
+            case RATESLOOKUP:
+            {
+                double total = 0.0;
+                for (LocalDate d : dates)
+                {
+                    total += rates.getRate(d).gasunitrate;
+                }
+                return total;
+            }
+            case INTERPOLATE:
+                work.interpolateReadings();
+                return work;
+            case COSTS:
+                work.calculateDailyCosts();
+                return work;
+            case SMOOTH:
+            {
+                UtilityData u = new UtilityData(rates);
+                u.setReadingsFromExisting(costed);
+                return u;
+            }
+            case DAILY:
+                costed.printUtilityCosts("Daily.dat");
+                return costed;
+            case WEEKLY:
+                costed.printWeeklyReadings("Weekly.dat");
+                return costed;
+            case DAYSOFWEEK:
+                costed.printPerDayReadings("DaysOfWeek.dat");
+                return costed;
+            case MONTHLY:
+                costed.printMonthlyReadings("Monthly.dat");
+                return costed;
+            case PERMONTH:
+                costed.printPerMonthReadings("MonthsOfYear.dat");
+                return costed;
+            case YEARS:
+                costed.printYearOnYearCosts("Year");
+                return costed;
+            default:
+                throw new IllegalArgumentException("Unknown stage " + stage);
+        }
+    }
+}
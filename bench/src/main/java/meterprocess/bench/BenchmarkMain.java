@@ -0,0 +1,39 @@
+/**************************************************************************
+ * Class BenchmarkMain.java - entry point for the benchmarks jar. Runs the
+ * JMH command line as usual, but always with the GC profiler added, so
+ * every result comes with its allocation rate (gc.alloc.rate.norm is
+ * bytes allocated per run of the stage).
+ *
+ * @author Colin Brough
+ * @version Dev_01
+ */
+
+package meterprocess.bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.*;
+
+public class BenchmarkMain
+{
+    /**********************************************************************
+     * main method
+     *
+     * @param array of strings, JMH command line arguments
+     */
+
+    public static void main(String[] args) throws Exception
+    {
+        CommandLineOptions cmd = new CommandLineOptions(args);
+        if (cmd.shouldHelp() || cmd.shouldList())
+        {
+            org.openjdk.jmh.Main.main(args);
+            return;
+        }
+        Options opts = new OptionsBuilder()
+            .parent(cmd)
+            .addProfiler(GCProfiler.class)
+            .build();
+        new Runner(opts).run();
+    }
+}
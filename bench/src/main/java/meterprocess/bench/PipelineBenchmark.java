@@ -0,0 +1,174 @@
+/**************************************************************************
+ * Class PipelineBenchmark.java - JMH benchmarks for each stage of the
+ * MeterProcess pipeline, from parsing the readings through to writing
+ * each report, at data set sizes from a year to millions of days.
+ *
+ * Each benchmark times one run of its stage (average time per run), on
+ * input worked out once per data set size. Run through BenchmarkMain, or
+ * with JMH's -prof gc, to get allocation rates alongside.
+ *
+ * @author Colin Brough
+ * @version Dev_01
+ */
+
+package meterprocess.bench;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx4g", "-Dfile.encoding=UTF-8" })
+public class PipelineBenchmark
+{
+    /**************************************************************************
+     * The data set for one size - files written, every stage's input
+     * worked out - shared by all the benchmarks
+     */
+
+    @State(Scope.Benchmark)
+    public static class Data
+    {
+        // Days in the data set: a year, ten, a hundred, a thousand, and
+        // a couple of million
+        @Param({ "365", "3650", "36500", "365000", "2000000" })
+        public int days;
+
+        Stages stages;
+        Path dir;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException
+        {
+            dir = Files.createTempDirectory("meterbench");
+            stages = Stages.load();
+            stages.setUp(days, dir);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException
+        {
+            List<Path> files = new ArrayList<Path>();
+            try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir))
+            {
+                for (Path p : ds)
+                {
+                    files.add(p);
+                }
+            }
+            for (Path p : files)
+            {
+                Files.delete(p);
+            }
+            Files.delete(dir);
+        }
+    }
+
+    //----------------------------------------------------------------------
+    // The stages that change their input get a fresh copy of it before
+    // each run; copying is outside the timing.
+
+    @State(Scope.Thread)
+    public static class FreshReadings
+    {
+        @Setup(Level.Invocation)
+        public void reset(Data data)
+        {
+            data.stages.reset(Stages.Stage.INTERPOLATE);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class FreshCosts
+    {
+        @Setup(Level.Invocation)
+        public void reset(Data data)
+        {
+            data.stages.reset(Stages.Stage.COSTS);
+        }
+    }
+
+    //----------------------------------------------------------------------
+    // Reading and calculating
+
+    @Benchmark
+    public Object parseReadings(Data data)
+    {
+        return data.stages.run(Stages.Stage.PARSE);
+    }
+
+    @Benchmark
+    public Object loadRates(Data data)
+    {
+        return data.stages.run(Stages.Stage.RATESLOAD);
+    }
+
+    @Benchmark
+    public Object getRate(Data data)
+    {
+        return data.stages.run(Stages.Stage.RATESLOOKUP);
+    }
+
+    @Benchmark
+    public Object interpolateReadings(Data data, FreshReadings fresh)
+    {
+        return data.stages.run(Stages.Stage.INTERPOLATE);
+    }
+
+    @Benchmark
+    public Object calculateDailyCosts(Data data, FreshCosts fresh)
+    {
+        return data.stages.run(Stages.Stage.COSTS);
+    }
+
+    @Benchmark
+    public Object smooth(Data data)
+    {
+        return data.stages.run(Stages.Stage.SMOOTH);
+    }
+
+    //----------------------------------------------------------------------
+    // The reports
+
+    @Benchmark
+    public Object printDaily(Data data)
+    {
+        return data.stages.run(Stages.Stage.DAILY);
+    }
+
+    @Benchmark
+    public Object printWeekly(Data data)
+    {
+        return data.stages.run(Stages.Stage.WEEKLY);
+    }
+
+    @Benchmark
+    public Object printDaysOfWeek(Data data)
+    {
+        return data.stages.run(Stages.Stage.DAYSOFWEEK);
+    }
+
+    @Benchmark
+    public Object printMonthly(Data data)
+    {
+        return data.stages.run(Stages.Stage.MONTHLY);
+    }
+
+    @Benchmark
+    public Object printPerMonth(Data data)
+    {
+        return data.stages.run(Stages.Stage.PERMONTH);
+    }
+
+    @Benchmark
+    public Object printYearOnYear(Data data)
+    {
+        return data.stages.run(Stages.Stage.YEARS);
+    }
+}
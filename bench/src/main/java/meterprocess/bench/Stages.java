@@ -0,0 +1,87 @@
+/**************************************************************************
+ * Interface Stages.java - the MeterProcess pipeline, one stage at a time,
+ * as the benchmarks see it.
+ *
+ * The program's classes are all in the default package, which JMH can't
+ * generate benchmarks in and named packages can't import; so the stages
+ * are reached through this interface, implemented by PipelineStages in
+ * the default package and loaded by name.
+ *
+ * @author Colin Brough
+ * @version Dev_01
+ */
+
+package meterprocess.bench;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+public interface Stages
+{
+    /**************************************************************************
+     * The stages that can be run
+     */
+
+    enum Stage
+    {
+        PARSE,			// setReadingsFromFile
+        RATESLOAD,		// RatesData from the rates file
+        RATESLOOKUP,		// getRate for every day
+        INTERPOLATE,		// interpolateReadings
+        COSTS,			// calculateDailyCosts
+        SMOOTH,			// setReadingsFromExisting
+        DAILY,			// printUtilityCosts
+        WEEKLY,			// printWeeklyReadings
+        DAYSOFWEEK,		// printPerDayReadings
+        MONTHLY,		// printMonthlyReadings
+        PERMONTH,		// printPerMonthReadings
+        YEARS			// printYearOnYearCosts
+    }
+
+    /**********************************************************************
+     * Write readings and rates files covering the given number of days
+     * into a directory, and work out every stage's input from them.
+     *
+     * @param days, length of the data set
+     * @param dir, directory for the input files and the reports
+     * @throws IOException if the files can't be written
+     */
+
+    void setUp(int days, Path dir) throws IOException;
+
+    /**********************************************************************
+     * Give a stage that changes its input a fresh copy of it; call before
+     * each run of INTERPOLATE or COSTS.
+     *
+     * @param stage, the stage about to run
+     */
+
+    void reset(Stage stage);
+
+    /**********************************************************************
+     * Run a stage once
+     *
+     * @param stage, the stage to run
+     * @return its result, for the benchmark to consume
+     */
+
+    Object run(Stage stage);
+
+    /**********************************************************************
+     * Load the default-package implementation
+     *
+     * @return a new, not yet set up, instance
+     */
+
+    static Stages load()
+    {
+        try
+        {
+            return (Stages) Class.forName("PipelineStages").getDeclaredConstructor().newInstance();
+        }
+        catch (ReflectiveOperationException e)
+        {
+            throw new IllegalStateException("Can't load PipelineStages", e);
+        }
+    }
+}
@@ -0,0 +1,228 @@
+/**************************************************************************
+ * Class CostKernel.java for the number crunching behind
+ * UtilityData.calculateDailyCosts() - daily usage from the meter readings,
+ * and the costs from the usage and rates - over the primitive columns of
+ * UtilityColumns.
+ *
+ * Each is a plain counted loop over arrays, each day independent of the
+ * others, which the JIT compiles to SIMD instructions where the machine
+ * has them. Long runs of days are split into pieces across the fork/join
+ * pool. Every day is worked out by exactly the same expression as before,
+ * whichever piece or thread it falls to, so the results are the same bit
+ * for bit.
+ *
+ * It also costs half-hourly electricity consumption against time of use
+ * prices (see RatesData) - each half hour's use times that half hour's
+ * price, summed over the day.
+ *
+ * The consumption and the dynamic prices are both held as flat arrays of
+ * 48 values a day (see IntervalData), so costing a day is a single pass
+ * over two runs of 48 doubles. Band prices are expanded into the same
+ * form - the band's price in its half hours, the day's unit rate in the
+ * rest - only when the band set or the unit rate changes, which is rarely;
+ * the days are costed in date order alongside the bands, so there is no
+ * per-day searching of the bands either.
+ *
+ * @author Colin Brough
+ * @version Dev_01
+ */
+
+import java.util.concurrent.*;
+
+public class CostKernel
+{
+    // Runs of more days than this are split across the fork/join pool
+    static final int SPLIT = 1 << 16;
+
+    /**********************************************************************
+     * Work out daily usage from meter readings - each day's reading less
+     * the day before's
+     *
+     * @param meter, the readings
+     * @param used, filled in with the usage
+     * @param from, index of the first day to work out; at least 1
+     * @param to, index after the last day
+     */
+
+    public static void usage(double[] meter, double[] used, int from, int to)
+    {
+        forRange(from, to, (lo, hi) -> difference(meter, used, lo, hi));
+    }
+
+    private static void difference(double[] meter, double[] used, int from, int to)
+    {
+        for (int i = from; i < to; i++)
+        {
+            used[i] = meter[i] - meter[i-1];
+        }
+    }
+
+    /**********************************************************************
+     * Work out the daily gas, electricity and total costs at the flat
+     * unit rates, from the usage and the rates columns
+     *
+     * @param c, the columns, with the rates filled in
+     * @param from, index of the first day to cost
+     * @param to, index after the last day
+     */
+
+    public static void flatCosts(UtilityColumns c, int from, int to)
+    {
+        forRange(from, to, (lo, hi) -> flatCosts(c.gasUsed, c.gasstanding, c.gasunitrate,
+                                                 c.elecUsed, c.elecstanding, c.elecunitrate,
+                                                 c.gascost, c.eleccost, c.totalcost, lo, hi));
+    }
+
+    private static void flatCosts(double[] gasUsed, double[] gasStanding, double[] gasUnit,
+                                  double[] elecUsed, double[] elecStanding, double[] elecUnit,
+                                  double[] gasCost, double[] elecCost, double[] totalCost,
+                                  int from, int to)
+    {
+        final double vat = UtilityData.VAT, conversion = UtilityData.GASCONVERSION;
+        for (int i = from; i < to; i++)
+        {
+            gasCost[i]   = vat * ( gasStanding[i]  + gasUsed[i]  * gasUnit[i] * conversion );
+            elecCost[i]  = vat * ( elecStanding[i] + elecUsed[i] * elecUnit[i] );
+            totalCost[i] = gasCost[i] + elecCost[i];
+        }
+    }
+
+    /**********************************************************************
+     * Work out the cost of the electricity used on a run of days, at time
+     * of use prices, before standing charges and VAT. Days with no interval
+     * data, or no time of use prices, are given NaN - they are costed at
+     * the flat unit rate as usual.
+     *
+     * @param use, half-hourly electricity consumption
+     * @param rates, holding the bands and dynamic prices
+     * @param days, epoch day of each day, in order
+     * @param from, index of the first day to cost
+     * @param to, index after the last day to cost
+     * @param unitRate, each day's flat unit rate, for half hours outside
+     *        the bands
+     * @param cost, filled in with the cost of each day from..to-1, day i
+     *        at cost[i - from] - so it need only hold to - from days
+     */
+
+    public static void unitCosts(IntervalData use, RatesData rates, int[] days, int from, int to,
+                                 double[] unitRate, double[] cost)
+    {
+        IntervalData dynamic = rates.dynamicPrices;
+        double[] prices = new double[IntervalData.SLOTS];	// Band prices expanded
+        int band = -1;			// Band set in force
+        int expanded = -1;		// Band set 'prices' holds, for
+        double expandedRate = Double.NaN;	//   this unit rate
+        boolean anyBand = false;	// 'prices' holds a band price at all
+
+        for (int i = from; i < to; i++)
+        {
+            int d = days[i];
+            int k = use.indexOf(d);
+            if (k < 0)
+            {
+                cost[i - from] = Double.NaN;
+                continue;
+            }
+
+            int p = (dynamic != null) ? dynamic.indexOf(d) : -1;
+            if (p >= 0)
+            {
+                cost[i - from] = dot(use.value, k * IntervalData.SLOTS, dynamic.value, p * IntervalData.SLOTS);
+                continue;
+            }
+
+            while ((band + 1 < rates.bandCount) && (rates.bandDay[band+1] <= d))
+            {
+                band++;
+            }
+            if (band < 0)
+            {
+                cost[i - from] = Double.NaN;
+                continue;
+            }
+            if ((band != expanded) || (Double.compare(unitRate[i], expandedRate) != 0))
+            {
+                anyBand = expand(rates.bandPrice[band], unitRate[i], prices);
+                expanded = band;
+                expandedRate = unitRate[i];
+            }
+            cost[i - from] = anyBand ? dot(use.value, k * IntervalData.SLOTS, prices, 0) : Double.NaN;
+        }
+    }
+
+    //----------------------------------------------------------------------
+    // Fill 'prices' from a band set, the unit rate where it has none;
+    // returns false if the set has no band prices at all
+
+    private static boolean expand(double[] band, double unitRate, double[] prices)
+    {
+        boolean any = false;
+        for (int s = 0; s < IntervalData.SLOTS; s++)
+        {
+            any |= ! Double.isNaN(band[s]);
+            prices[s] = Double.isNaN(band[s]) ? unitRate : band[s];
+        }
+        return any;
+    }
+
+    //----------------------------------------------------------------------
+    // One day's cost: the sum of 48 half hours' use times price
+
+    private static double dot(double[] use, int u, double[] price, int p)
+    {
+        double sum = 0.0;
+        for (int s = 0; s < IntervalData.SLOTS; s++)
+        {
+            sum += use[u + s] * price[p + s];
+        }
+        return sum;
+    }
+
+    //----------------------------------------------------------------------
+    // Running a loop over a range of days, split across the fork/join pool
+    // if it's long enough to be worth it
+
+    interface Range
+    {
+        void run(int from, int to);
+    }
+
+    static void forRange(int from, int to, Range body)
+    {
+        if (to - from <= SPLIT)
+        {
+            body.run(from, to);
+        }
+        else
+        {
+            ForkJoinPool.commonPool().invoke(new Split(body, from, to));
+        }
+    }
+
+    private static class Split extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final Range body;
+        private final int from, to;
+
+        Split(Range body, int from, int to)
+        {
+            this.body = body;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute()
+        {
+            if (to - from <= SPLIT)
+            {
+                body.run(from, to);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new Split(body, from, mid), new Split(body, mid, to));
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/**************************************************************************
+ * Class EpochDays.java of static helpers for working with dates as plain
+ * epoch day numbers (days since 1970-01-01, as LocalDate.toEpochDay()),
+ * so hot loops can do date arithmetic without creating LocalDate objects.
+ *
+ * @author Colin Brough
+ * @version Dev_01
+ */
+
+public class EpochDays
+{
+    //----------------------------------------------------------------------
+    // Days in each month of a non-leap year, indexed 1..12
+
+    private static final int[] MONTHLENGTH = { 0, 31, 28, 31, 30, 31, 30, 31, 31, 30, 31, 30, 31 };
+
+    /**********************************************************************
+     * Returns true if the given year is a leap year (proleptic Gregorian)
+     *
+     * @param year
+     * @return true for a leap year
+     */
+
+    public static boolean isLeapYear(int year)
+    {
+        return ((year & 3) == 0) && (((year % 100) != 0) || ((year % 400) == 0));
+    }
+
+    /**********************************************************************
+     * Returns the number of days in the given month
+     *
+     * @param year
+     * @param month, 1..12
+     * @return number of days in that month
+     */
+
+    public static int monthLength(int year, int month)
+    {
+        return ((month == 2) && isLeapYear(year)) ? 29 : MONTHLENGTH[month];
+    }
+
+    /**********************************************************************
+     * Convert a year, month and day to an epoch day number - the same
+     * value LocalDate.of(y, m, d).toEpochDay() would give, for valid dates.
+     *
+     * @param year
+     * @param month, 1..12
+     * @param day, 1..31
+     * @return days since 1970-01-01
+     */
+
+    public static int of(int year, int month, int day)
+    {
+        int y = (month <= 2) ? year - 1 : year;
+        int era = Math.floorDiv(y, 400);
+        int yoe = y - era * 400;					// 0..399
+        int doy = (153 * (month + ((month > 2) ? -3 : 9)) + 2) / 5 + day - 1;	// 0..365
+        int doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;		// 0..146096
+        return era * 146097 + doe - 719468;
+    }
+
+    /**********************************************************************
+     * Convert an epoch day number to year, month and day, packed into one
+     * int as yyyymmdd (so 2024-03-15 is 20240315); use year(), month()
+     * and dayOfMonth() to unpack. Inverse of of(), for years 1 onwards.
+     *
+     * @param days since 1970-01-01
+     * @return packed yyyymmdd
+     */
+
+    public static int civil(int day)
+    {
+        int z = day + 719468;
+        int era = Math.floorDiv(z, 146097);
+        int doe = z - era * 146097;					// 0..146096
+        int yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;	// 0..399
+        int doy = doe - (365 * yoe + yoe / 4 - yoe / 100);		// 0..365
+        int mp = (5 * doy + 2) / 153;					// 0..11, from March
+        int d = doy - (153 * mp + 2) / 5 + 1;
+        int m = (mp < 10) ? mp + 3 : mp - 9;
+        int y = yoe + era * 400 + ((m <= 2) ? 1 : 0);
+        return y * 10000 + m * 100 + d;
+    }
+
+    // Unpack the fields of a civil() value
+    public static int year(int ymd)       { return ymd / 10000; }
+    public static int month(int ymd)      { return (ymd / 100) % 100; }
+    public static int dayOfMonth(int ymd) { return ymd % 100; }
+
+    /**********************************************************************
+     * Returns the day of the week of an epoch day, 1 = Monday to 7 = Sunday
+     * as DayOfWeek.getValue(); 1970-01-01 was a Thursday.
+     *
+     * @param days since 1970-01-01
+     * @return day of week, 1..7
+     */
+
+    public static int dayOfWeek(int day)
+    {
+        return Math.floorMod(day + 3, 7) + 1;
+    }
+
+    /**********************************************************************
+     * Returns the day of the year (1..366) of an epoch day
+     *
+     * @param days since 1970-01-01
+     * @return day of year
+     */
+
+    public static int dayOfYear(int day)
+    {
+        return day - of(year(civil(day)), 1, 1) + 1;
+    }
+}
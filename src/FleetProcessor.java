@@ -0,0 +1,226 @@
+/**************************************************************************
+ * Class FleetProcessor.java to process a whole estate of properties in one
+ * run - the readings, rates and reports for each, in parallel.
+ *
+ * The input is a directory holding one directory per property, named by
+ * the property's ID (as MeterDataGenerator writes for more than one
+ * meter). Each holds the property's MeterReadings.dat, and optionally an
+ * elecgas.txt of more recent readings and its own Rates.dat; a Rates.dat
+ * in the top directory is used for any property without one. A property
+ * with a smart meter may instead have half-hourly ElecIntervals.dat and
+ * GasIntervals.dat (see IntervalData), which are used in place of the
+ * readings, and get a LoadProfile.dat report too. Each property's reports
+ * go into a directory of the same ID under the output directory; which
+ * reports are written is up to the run plan, as for a single household.
+ *
+ * Time of use electricity prices go alongside the Rates.dat they belong
+ * to, top level or property's own: a Bands.dat of time bands, and an
+ * ElecPrices.dat of dynamic half-hourly prices (see RatesData). They only
+ * apply to properties with half-hourly data.
+ *
+ * Properties are processed on a work-stealing pool, one per core by
+ * default. Only a bounded number are in hand at once - the directory is
+ * read one entry at a time, and a property isn't started until one of
+ * those in progress has finished - so memory use depends on the number of
+ * threads, not the size of the estate.
+ *
+ * @author Colin Brough
+ * @version Dev_01
+ */
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class FleetProcessor
+{
+    private final File inputDirectory;
+    private final File outputDirectory;
+    private final int threads;
+    private final int inFlight;		// Most properties held in memory at once
+    private final RunPlan plan;		// Which reports are wanted
+
+    private RatesData sharedRates;	// From the top level Rates.dat, if any
+    private final AtomicInteger processed = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+
+    /**********************************************************************
+     * Constructor
+     *
+     * @param input, directory of property directories
+     * @param output, directory to write each property's reports under
+     * @param threads, number of properties to process at once
+     * @param plan, saying which reports are wanted - its files and
+     *              directories aren't used, each property having its own
+     */
+
+    public FleetProcessor(File input, File output, int threads, RunPlan plan)
+    {
+        inputDirectory = input;
+        outputDirectory = output;
+        this.plan = plan;
+        this.threads = Math.max(threads, 1);
+        inFlight = 2 * this.threads;	// Enough to keep every thread busy
+    }
+
+    /**********************************************************************
+     * Process every property, returning when all are done
+     *
+     * @return the number of properties that failed
+     * @throws IOException if the input directory can't be read
+     */
+
+    public int run() throws IOException
+    {
+        if (new File(inputDirectory, "Rates.dat").isFile())
+        {
+            sharedRates = loadRates(inputDirectory);
+        }
+
+        ExecutorService pool = Executors.newWorkStealingPool(threads);
+        Semaphore slots = new Semaphore(inFlight);
+        try (DirectoryStream<Path> properties = Files.newDirectoryStream(inputDirectory.toPath(),
+                                                                         p -> Files.isDirectory(p)))
+        {
+            for (Path p : properties)
+            {
+                slots.acquireUninterruptibly();
+                String id = p.getFileName().toString();
+                pool.execute(() -> {
+                        try
+                        {
+                            process(id, p.toFile());
+                        }
+                        finally
+                        {
+                            slots.release();
+                        }
+                    });
+            }
+        }
+        finally
+        {
+            // Wait for the last properties to finish
+            slots.acquireUninterruptibly(inFlight);
+            pool.shutdown();
+        }
+        System.out.printf("Fleet: %d properties processed, %d failed\n", processed.get(), failed.get());
+        return failed.get();
+    }
+
+    /**********************************************************************
+     * Read, calculate and report on one property. Failures are reported
+     * against the property's ID, and don't stop the others.
+     *
+     * @param id, the property's ID
+     * @param dir, its input directory
+     */
+
+    private void process(String id, File dir)
+    {
+        try
+        {
+            File readings = new File(dir, "MeterReadings.dat");
+            File recent = new File(dir, "elecgas.txt");
+            File rates = new File(dir, "Rates.dat");
+            File elecIntervals = new File(dir, "ElecIntervals.dat");
+            File gasIntervals = new File(dir, "GasIntervals.dat");
+            boolean smart = elecIntervals.isFile() && gasIntervals.isFile();
+            if (! readings.isFile() && ! smart)
+            {
+                throw new IOException("no MeterReadings.dat");
+            }
+            if (! rates.isFile() && (sharedRates == null))
+            {
+                throw new IOException("no Rates.dat, and no shared one");
+            }
+
+            UtilityData u = new UtilityData(rates.isFile() ? loadRates(dir) : sharedRates);
+            if (smart)
+            {
+                // Meter readings start from zero; only the usage matters
+                u.setReadingsFromIntervals(new IntervalData(elecIntervals),
+                                           new IntervalData(gasIntervals), 0.0, 0.0);
+            }
+            else if (recent.isFile())
+            {
+                u.setReadingsFromFiles(readings, recent);
+            }
+            else
+            {
+                u.setReadingsFromFile(readings);
+            }
+            u.interpolateReadings();
+            u.calculateDailyCosts();
+
+            File out = new File(outputDirectory, id);
+            if (! out.isDirectory() && ! out.mkdirs())
+            {
+                throw new IOException("unable to create " + out);
+            }
+            String outPath = out.getPath() + File.separator;
+            u.setOutputDirectories(outPath, outPath);
+            ReportCache cache = new ReportCache(new File(out, "Reports.manifest"));
+            u.setReportCache(cache);
+
+            UtilityData uSmooth = null;
+            if (plan.needsSmoothing())
+            {
+                uSmooth = u.smoothed(new SmoothingEngine.Spec(SmoothingEngine.MONTH,
+                                                              SmoothingEngine.Kernel.LEADING))[0];
+                uSmooth.aggregates();
+            }
+            u.aggregates();
+
+            // The reports are written one after another on this thread;
+            // the parallelism is across properties
+            int failedReports;
+            try (ReportScheduler reports = new ReportScheduler(0))
+            {
+                MeterProcessMain.submitReports(reports, plan, u, uSmooth);
+                failedReports = reports.awaitAll();
+            }
+            MeterProcessMain.saveCache(cache);
+            if (smart)
+            {
+                u.printLoadProfile("LoadProfile.dat");
+            }
+            if (failedReports > 0)
+            {
+                throw new IOException(failedReports + " reports failed");
+            }
+            processed.incrementAndGet();
+        }
+        catch (IOException | RuntimeException e)
+        {
+            System.out.println("ERROR: property '" + id + "': " + e.getMessage());
+            failed.incrementAndGet();
+        }
+    }
+
+    /**********************************************************************
+     * Read the Rates.dat in a directory, with any time of use prices
+     * alongside it
+     *
+     * @param dir, the directory
+     * @return the rates
+     * @throws IOException if a prices file can't be read
+     */
+
+    private static RatesData loadRates(File dir) throws IOException
+    {
+        RatesData rates = new RatesData(new File(dir, "Rates.dat"));
+        File bands = new File(dir, "Bands.dat");
+        File prices = new File(dir, "ElecPrices.dat");
+        if (bands.isFile())
+        {
+            rates.setBandsFromFile(bands);
+        }
+        if (prices.isFile())
+        {
+            rates.setDynamicPrices(new IntervalData(prices));
+        }
+        return rates;
+    }
+}
@@ -0,0 +1,193 @@
+/**************************************************************************
+ * Class IntervalData.java to hold half-hourly consumption, as exported by
+ * a smart meter, for one fuel - 48 values a day.
+ *
+ * The files have one line per day, the date then the day's 48 half-hourly
+ * values in order from 00:00-00:30:
+ *
+ *   dd/MM/yyyy v1 v2 ... v48
+ *
+ * so they are read by ReadingsParser like the other files, and comment
+ * and malformed lines are handled the same way. Days are slots of local
+ * clock time; a clock change day is still exported as 48 values.
+ *
+ * The values are held in one flat array, day after day, rather than as
+ * an object per slot; the daily totals are kept alongside, summed once,
+ * so the daily series rolled up from them (see
+ * UtilityData.setReadingsFromIntervals()) uses exactly these totals.
+ *
+ * @author Colin Brough
+ * @version Dev_01
+ */
+
+import java.io.*;
+import java.util.*;
+
+public class IntervalData
+{
+    // Half-hourly slots in a day
+    public static final int SLOTS = 48;
+
+    int size;			// Number of days held
+    int[] day;			// Epoch day of each, in order, no duplicates
+    double[] value;		// value[i * SLOTS + s] is slot s of day i
+    double[] total;		// Sum of each day's slots
+
+    /**********************************************************************
+     * Constructor - read one or more interval files. Where a day appears
+     * more than once, the last one read wins - the later line in a file,
+     * and the later file in the list.
+     *
+     * @param files, to read, oldest first
+     * @throws IOException if a file can't be read
+     */
+
+    public IntervalData(File... files) throws IOException
+    {
+        //------------------------------------------------------------------
+        // Gather every line, then sort them by day and, within a day, by
+        // the order they were read; the last of each day is the one kept
+
+        ArrayList<ReadingsParser.Result> parsed = new ArrayList<>();
+        int lines = 0;
+        for (File f : files)
+        {
+            ReadingsParser.Result r = ReadingsParser.parse(f, SLOTS);
+            for (String error : r.errors)
+            {
+                System.out.println("WARNING: skipping malformed line " + error);
+            }
+            parsed.add(r);
+            lines += r.count;
+        }
+
+        long[] order = new long[lines];		// day << 32 | sequence read
+        int[] file = new int[lines];		// Which result, and row in it,
+        int[] row = new int[lines];		//   by sequence read
+        int n = 0;
+        for (int p = 0; p < parsed.size(); p++)
+        {
+            ReadingsParser.Result r = parsed.get(p);
+            for (int i = 0; i < r.count; i++, n++)
+            {
+                order[n] = ((long) r.days[i] << 32) | n;
+                file[n] = p;
+                row[n] = i;
+            }
+        }
+        Arrays.sort(order);
+
+        day   = new int[lines];
+        value = new double[lines * SLOTS];
+        total = new double[lines];
+        for (int k = 0; k < lines; k++)
+        {
+            int d = (int) (order[k] >> 32);
+            if ((k + 1 < lines) && ((int) (order[k+1] >> 32) == d))
+            {
+                continue;			// A later line for this day follows
+            }
+            int seq = (int) order[k];
+            double[][] values = parsed.get(file[seq]).values;
+            int line = row[seq];
+
+            day[size] = d;
+            double sum = 0.0;
+            for (int s = 0; s < SLOTS; s++)
+            {
+                value[size * SLOTS + s] = values[s][line];
+                sum += values[s][line];
+            }
+            total[size] = sum;
+            size++;
+        }
+    }
+
+    /**********************************************************************
+     * Returns the number of days held
+     */
+
+    public int size()
+    {
+        return size;
+    }
+
+    /**********************************************************************
+     * Returns the epoch day of the i'th day held
+     */
+
+    public int day(int i)
+    {
+        return day[i];
+    }
+
+    /**********************************************************************
+     * Returns one half-hourly value
+     *
+     * @param i, index of the day
+     * @param slot, 0..47; slot 0 is 00:00-00:30
+     * @return the consumption in that half hour
+     */
+
+    public double slot(int i, int slot)
+    {
+        return value[i * SLOTS + slot];
+    }
+
+    /**********************************************************************
+     * Returns the total consumption for the i'th day held
+     */
+
+    public double dayTotal(int i)
+    {
+        return total[i];
+    }
+
+    /**********************************************************************
+     * Find the index of the given epoch day
+     *
+     * @param d, epoch day to look for
+     * @return its index, or -1 if it isn't held
+     */
+
+    public int indexOf(int d)
+    {
+        if ((size > 0) && (day[size-1] - day[0] == size - 1))
+        {
+            int i = d - day[0];
+            return ((i >= 0) && (i < size)) ? i : -1;
+        }
+        int i = Arrays.binarySearch(day, 0, size, d);
+        return (i >= 0) ? i : -1;
+    }
+
+    /**********************************************************************
+     * Work out the average load profile - mean consumption in each half
+     * hour of the day - over the days held in a date range.
+     *
+     * @param from, first epoch day to include
+     * @param to, last epoch day to include
+     * @return 48 averages, one per slot; all zero if no days are in range
+     */
+
+    public double[] loadProfile(int from, int to)
+    {
+        double[] profile = new double[SLOTS];
+        int first = Arrays.binarySearch(day, 0, size, from);
+        first = (first >= 0) ? first : -first - 1;
+        int count = 0;
+        for (int i = first; (i < size) && (day[i] <= to); i++, count++)
+        {
+            int base = i * SLOTS;
+            for (int s = 0; s < SLOTS; s++)
+            {
+                profile[s] += value[base + s];
+            }
+        }
+        for (int s = 0; (s < SLOTS) && (count > 0); s++)
+        {
+            profile[s] /= count;
+        }
+        return profile;
+    }
+}
@@ -0,0 +1,454 @@
+/**************************************************************************
+ * Class MeterDaemon.java to keep the reports up to date as readings are
+ * added, running all the time rather than being started by hand.
+ *
+ * It does the usual full run once, then watches the readings files,
+ * Rates.dat and the readings journal for changes. A burst of changes - an editor or Dropbox often
+ * writes a file several times in quick succession - is gathered up until
+ * the files have been quiet for DEBOUNCE milliseconds, then acted on:
+ *
+ *   - readings added to the end of a readings file are the usual case;
+ *     only the bytes added since last time are read, the new days are
+ *     interpolated and costed on to the data held (see
+ *     UtilityData.appendReadings()), and only the reports those days
+ *     reach are rewritten - the weekly, monthly and so on summaries, and
+ *     the year files from the year of the first new day;
+ *   - anything else - Rates.dat or the journal (see ReadingsJournal)
+ *     changing, a readings file being cut down or changed before its
+ *     end, new readings in the older file that the newer one might
+ *     override, or new readings for dates the journal has readings for -
+ *     means recalculating everything, but still without restarting.
+ *
+ * @author Colin Brough
+ * @version Dev_01
+ */
+
+import java.io.*;
+import java.nio.file.*;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+public class MeterDaemon
+{
+    // Quiet time, in milliseconds, that ends a burst of changes
+    static final long DEBOUNCE = 200;
+    // Bytes before the end of what's been read that are checked to see
+    // whether a file has only been added to
+    static final int TAILCHECK = 4096;
+    // The smoothing applied, as MeterProcessMain
+    static final SmoothingEngine.Spec SMOOTHING = new SmoothingEngine.Spec(SmoothingEngine.MONTH,
+                                                                           SmoothingEngine.Kernel.LEADING);
+
+    private final RunPlan plan;		// Where to read and write, and what
+    private final File historic;	// Older readings
+    private final File recent;		// Newer readings, overriding the older
+    private final File ratesFile;
+    private final File journal;		// Readings and rates added by tools
+    private final File journalSnapshot;
+
+    private UtilityData u;
+    private UtilityData uSmooth;
+    private final ReportCache cache;	// Kept across rebuilds
+    private final Tail historicTail;
+    private final Tail recentTail;
+    private int[] journalDays = new int[0];	// Dates the journal has readings for, in order
+
+    /**********************************************************************
+     * Constructor
+     *
+     * @param plan, giving the older readings file, the newer readings file
+     *              - usually the one added to - and the rates file; where
+     *              the reports go, and which are wanted
+     */
+
+    public MeterDaemon(RunPlan plan)
+    {
+        this.plan = plan;
+        this.historic = plan.historic();
+        this.recent = plan.recent();
+        this.ratesFile = plan.rates();
+        this.journal = plan.journal();
+        this.journalSnapshot = ReadingsJournal.snapshotFile(journal);
+        historicTail = new Tail(historic);
+        recentTail = new Tail(recent);
+        cache = new ReportCache(new File(plan.outputDirectory() + "Reports.manifest"));
+    }
+
+    /**********************************************************************
+     * Write all the reports, then keep them up to date - never returns
+     * unless interrupted or the files can't be watched
+     *
+     * @throws IOException if the directories can't be watched
+     * @throws InterruptedException if interrupted while waiting
+     */
+
+    public void run() throws IOException, InterruptedException
+    {
+        rebuild();
+
+        try (WatchService watcher = FileSystems.getDefault().newWatchService())
+        {
+            Set<Path> dirs = new HashSet<>();
+            for (File f : new File[] { historic, recent, ratesFile, journal })
+            {
+                Path dir = f.getAbsoluteFile().toPath().getParent();
+                // The journal needn't be there, nor the directory it goes in
+                if (((f != journal) || Files.isDirectory(dir)) && dirs.add(dir))
+                {
+                    dir.register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                                 StandardWatchEventKinds.ENTRY_MODIFY);
+                }
+            }
+            System.out.println("Watching " + historic + ", " + recent + ", " + ratesFile + " and " + journal);
+
+            while (true)
+            {
+                Set<File> changed = new HashSet<>();
+                WatchKey key = watcher.take();
+                do
+                {
+                    collect(key, changed);
+                    key = watcher.poll(DEBOUNCE, TimeUnit.MILLISECONDS);
+                } while (key != null);
+
+                if (! changed.isEmpty())
+                {
+                    update(changed);
+                }
+            }
+        }
+    }
+
+    // Note which of our files a watch key's events are about
+    private void collect(WatchKey key, Set<File> changed)
+    {
+        Path dir = (Path) key.watchable();
+        for (WatchEvent<?> event : key.pollEvents())
+        {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW)
+            {
+                // Events were lost - assume the worst
+                changed.add(historic);
+                changed.add(recent);
+                changed.add(ratesFile);
+                continue;
+            }
+            File f = dir.resolve((Path) event.context()).toFile();
+            for (File ours : new File[] { historic, recent, ratesFile, journal, journalSnapshot })
+            {
+                if (f.equals(ours.getAbsoluteFile()))
+                {
+                    changed.add(ours);
+                }
+            }
+        }
+        key.reset();
+    }
+
+    /**********************************************************************
+     * Bring the data and reports up to date with changed files
+     *
+     * @param changed, the files that have changed
+     */
+
+    private void update(Set<File> changed)
+    {
+        long start = System.nanoTime();
+        if (changed.contains(ratesFile) || changed.contains(journal) || changed.contains(journalSnapshot) ||
+            (u == null))
+        {
+            rebuild();
+            return;
+        }
+
+        try
+        {
+            int size = u.size();
+            int from = size;
+            int lastDay = u.columns().day[size-1];
+            Tail.Readings older = changed.contains(historic) ? historicTail.read() : Tail.NONE;
+            Tail.Readings newer = changed.contains(recent)   ? recentTail.read()   : Tail.NONE;
+
+            // New readings in the older file are only added on the end if
+            // they are after everything held, so the newer file can't have
+            // had a say on those dates; and none can be added for dates
+            // the journal has readings for, as the journal's win
+            if ((older == null) || (newer == null) ||
+                ((older.count > 0) && (older.firstDay() <= lastDay)) ||
+                inJournal(older) || inJournal(newer))
+            {
+                rebuild();
+                return;
+            }
+            if (older.count > 0)
+            {
+                from = Math.min(from, u.appendReadings(historic.getName(), older.days,
+                                                       older.elec, older.gas, older.count));
+            }
+            if (newer.count > 0)
+            {
+                from = Math.min(from, u.appendReadings(recent.getName(), newer.days,
+                                                       newer.elec, newer.gas, newer.count));
+            }
+            if (from >= u.size())
+            {
+                return;				// Nothing new
+            }
+            if (uSmooth != null)
+            {
+                uSmooth.updateSmoothed(u, from);
+            }
+            writeReports(from);
+            System.out.printf("Updated from %s in %d ms\n", LocalDate.ofEpochDay(u.columns().day[from]),
+                              (System.nanoTime() - start) / 1000000);
+        }
+        catch (IOException e)
+        {
+            System.out.println("Unable to read new readings: " + e.getMessage() + "; recalculating");
+            rebuild();
+        }
+    }
+
+    /**********************************************************************
+     * Read everything from scratch and write all the reports. If a file
+     * is missing - perhaps part way through being replaced - wait for the
+     * next change rather than stopping.
+     */
+
+    private void rebuild()
+    {
+        long start = System.nanoTime();
+        for (File f : new File[] { historic, recent, ratesFile })
+        {
+            if (! f.isFile())
+            {
+                System.out.println("WARNING: " + f + " not found; waiting for it to change");
+                u = null;
+                return;
+            }
+        }
+        try
+        {
+            // Note where the files end before reading them; anything added
+            // while they are read is read again next time, and ignored then
+            // as it matches what's held
+            historicTail.mark();
+            recentTail.mark();
+        }
+        catch (IOException e)
+        {
+            System.out.println("WARNING: unable to read " + e.getMessage() + "; waiting for it to change");
+            u = null;
+            return;
+        }
+
+        try
+        {
+            u = new UtilityData(new RatesData(ratesFile));
+            u.setReadingsFromFiles(historic, recent);
+
+            // Then anything added through the journal, which wins over both
+            ReadingsJournal.Contents added = ReadingsJournal.read(journal);
+            added.applyTo(u);
+            added.applyTo(u.rates());
+            journalDays = Arrays.copyOf(added.days, added.count);
+            Arrays.sort(journalDays);
+        }
+        catch (IOException e)
+        {
+            System.out.println("WARNING: " + e.getMessage() + "; waiting for it to change");
+            u = null;
+            return;
+        }
+        u.interpolateReadings();
+        u.calculateDailyCosts();
+        u.setOutputDirectories(plan.outputDirectory(), plan.plotDirectory());
+        u.setReportCache(cache);
+        uSmooth = plan.needsSmoothing() ? u.smoothed(SMOOTHING)[0] : null;
+        if (u.size() == 0)
+        {
+            System.out.println("WARNING: no readings; waiting for them to change");
+            u = null;
+            return;
+        }
+        writeReports(0);
+        System.out.printf("Recalculated %d days in %d ms\n", u.size(), (System.nanoTime() - start) / 1000000);
+    }
+
+    // Returns true if any of the readings are for a date the journal has
+    private boolean inJournal(Tail.Readings r)
+    {
+        for (int i = 0; i < r.count; i++)
+        {
+            if (Arrays.binarySearch(journalDays, r.days[i]) >= 0)
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**********************************************************************
+     * Rewrite the reports that days 'from' onwards appear in
+     *
+     * @param from, index of the first changed day
+     */
+
+    private void writeReports(int from)
+    {
+        int year = (from == 0) ? Integer.MIN_VALUE
+                               : EpochDays.year(EpochDays.civil(u.columns().day[from]));
+        int smoothFrom = SmoothingEngine.firstAffected(SMOOTHING, from);
+        int smoothYear = (smoothFrom == 0) ? Integer.MIN_VALUE
+                                           : EpochDays.year(EpochDays.civil(u.columns().day[smoothFrom]));
+        u.aggregates();
+        if (uSmooth != null)
+        {
+            uSmooth.aggregates();
+        }
+
+        try (ReportScheduler reports = new ReportScheduler())
+        {
+            MeterProcessMain.submit(reports, plan, "Daily.dat",      () -> u.printUtilityCosts("Daily.dat"));
+            MeterProcessMain.submit(reports, plan, "Weekly.dat",     () -> u.printWeeklyReadings("Weekly.dat"));
+            MeterProcessMain.submit(reports, plan, "DaysOfWeek.dat", () -> u.printPerDayReadings("DaysOfWeek.dat"));
+            MeterProcessMain.submit(reports, plan, "Monthly.dat",    () -> u.printMonthlyReadings("Monthly.dat"));
+            MeterProcessMain.submit(reports, plan, "Year",           () -> u.printYearOnYearCosts("Year", year));
+
+            MeterProcessMain.submit(reports, plan, "SmoothDaily.dat",
+                                    () -> uSmooth.printUtilityCosts("SmoothDaily.dat"));
+            MeterProcessMain.submit(reports, plan, "SmoothWeekly.dat",
+                                    () -> uSmooth.printWeeklyReadings("SmoothWeekly.dat"));
+            MeterProcessMain.submit(reports, plan, "SmoothMonthly.dat",
+                                    () -> uSmooth.printMonthlyReadings("SmoothMonthly.dat"));
+            MeterProcessMain.submit(reports, plan, "SmoothYear",
+                                    () -> uSmooth.printYearOnYearCosts("SmoothYear", smoothYear));
+        }
+        MeterProcessMain.saveCache(cache);
+        Stages.writeSummary();
+    }
+
+    /**************************************************************************
+     * Where reading of a readings file got to, so that only what has been
+     * added since needs reading - with a checksum of the bytes just before
+     * that point, to tell whether the file has only been added to, or has
+     * been changed before the end.
+     */
+
+    static class Tail
+    {
+        // Readings read from a file, in file order
+        static class Readings
+        {
+            int count;
+            int[] days = new int[16];
+            double[] elec = new double[16];
+            double[] gas = new double[16];
+
+            int firstDay()
+            {
+                int first = Integer.MAX_VALUE;
+                for (int i = 0; i < count; i++)
+                {
+                    first = Math.min(first, days[i]);
+                }
+                return first;
+            }
+        }
+
+        static final Readings NONE = new Readings();
+
+        private final File file;
+        private long offset;		// Bytes read so far - always whole lines
+        private long check;		// Checksum of the TAILCHECK bytes before offset
+
+        Tail(File file)
+        {
+            this.file = file;
+        }
+
+        // Note the end of the last whole line in the file, before it is
+        // read in full; a last line with no newline may still be being
+        // written, so it is read again next time
+        void mark() throws IOException
+        {
+            offset = lastLineEnd(file.length());
+            check = checksum(offset);
+        }
+
+        // Read the readings added since last time, up to the last newline;
+        // null if the file has been changed other than by adding to the end
+        Readings read() throws IOException
+        {
+            if ((file.length() < offset) || (checksum(offset) != check))
+            {
+                return null;
+            }
+            Readings r = new Readings();
+            try (ReadingsParser.Stream in = new ReadingsParser.Stream(file, 2, offset, true))
+            {
+                while (in.next())
+                {
+                    if (r.count == r.days.length)
+                    {
+                        r.days = Arrays.copyOf(r.days, r.count * 2);
+                        r.elec = Arrays.copyOf(r.elec, r.count * 2);
+                        r.gas  = Arrays.copyOf(r.gas,  r.count * 2);
+                    }
+                    r.days[r.count] = in.day;
+                    r.elec[r.count] = in.values[0];
+                    r.gas[r.count]  = in.values[1];
+                    r.count++;
+                }
+                for (String error : in.errors)
+                {
+                    System.out.println("WARNING: skipping malformed line " + error);
+                }
+                offset = in.position();
+            }
+            check = checksum(offset);
+            return r;
+        }
+
+        // Offset just after the last newline before 'end'; 0 if there isn't one
+        private long lastLineEnd(long end) throws IOException
+        {
+            byte[] b = new byte[TAILCHECK];
+            try (RandomAccessFile f = new RandomAccessFile(file, "r"))
+            {
+                while (end > 0)
+                {
+                    int n = (int) Math.min(end, TAILCHECK);
+                    f.seek(end - n);
+                    f.readFully(b, 0, n);
+                    for (int i = n - 1; i >= 0; i--)
+                    {
+                        if (b[i] == '\n')
+                        {
+                            return end - n + i + 1;
+                        }
+                    }
+                    end -= n;
+                }
+            }
+            return 0;
+        }
+
+        // Checksum of the TAILCHECK bytes (or fewer, near the start) before 'end'
+        private long checksum(long end) throws IOException
+        {
+            int n = (int) Math.min(end, TAILCHECK);
+            byte[] b = new byte[n];
+            try (RandomAccessFile f = new RandomAccessFile(file, "r"))
+            {
+                f.seek(end - n);
+                f.readFully(b);
+            }
+            CRC32 crc = new CRC32();
+            crc.update(b);
+            return crc.getValue();
+        }
+    }
+}
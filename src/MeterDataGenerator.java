@@ -0,0 +1,325 @@
+/**************************************************************************
+ * Class MeterDataGenerator.java to write made-up but realistic meter
+ * readings and tariffs, in exactly the formats of MeterReadings.dat,
+ * elecgas.txt and Rates.dat - so the program can be tried against any
+ * amount of data, on any machine.
+ *
+ * Everything generated follows from the seed, so the same settings always
+ * give the same files. The settings are:
+ *
+ *   days          length of the data, from the start date
+ *   maximum gap   readings are taken every 1 to this many days; 1 gives a
+ *                 reading every day, more leaves gaps to interpolate
+ *   gas usage     average m3 a day, and the seasonal swing - the fraction
+ *                 it goes up by in mid winter and down by in mid summer
+ *   elec usage    average kWh a day
+ *   tariff days   how often the rates change
+ *   recent days   how many of the most recent days go in elecgas.txt
+ *                 rather than MeterReadings.dat (a few days either side
+ *                 are in both, as happens with the real files)
+ *   meters        how many households; with more than one each gets its
+ *                 own directory, meter001, meter002, ...
+ *   defects       fraction of readings that come with a defect - a
+ *                 comment or blank line, a malformed line, a reading
+ *                 given twice with the second corrected, a pair of lines
+ *                 out of order, or a CRLF line ending
+ *
+ * Run from the command line, eg
+ *
+ *   java -cp meterprocess MeterDataGenerator --dir /tmp/data --years 10
+ *        --gap 7 --meters 3 --defects 0.01 --seed 42
+ *
+ * @author Colin Brough
+ * @version Dev_01
+ */
+
+import java.io.*;
+import java.time.LocalDate;
+import java.util.*;
+
+public class MeterDataGenerator
+{
+    // Days either side of the split between the two readings files that
+    // are in both
+    static final int OVERLAP = 5;
+
+    //----------------------------------------------------------------------
+    // The settings, with their defaults
+
+    private LocalDate start = LocalDate.of(2020, 1, 1);
+    private int days = 3 * 365;
+    private int maxGap = 1;
+    private double gasPerDay = 3.0;
+    private double gasSwing = 0.8;
+    private double elecPerDay = 10.0;
+    private int tariffDays = 180;
+    private int recentDays = 90;
+    private int meters = 1;
+    private double defects = 0.0;
+    private long seed = 1;
+
+    //----------------------------------------------------------------------
+    // Setters for the settings
+
+    public void setStart(LocalDate start)          { this.start = start; }
+    public void setDays(int days)                  { this.days = Math.max(days, 1); }
+    public void setMaxGap(int maxGap)              { this.maxGap = Math.max(maxGap, 1); }
+    public void setGasUsage(double perDay, double swing)
+    {
+        gasPerDay = perDay;
+        gasSwing = swing;
+    }
+    public void setElecUsage(double perDay)        { elecPerDay = perDay; }
+    public void setTariffDays(int tariffDays)      { this.tariffDays = Math.max(tariffDays, 1); }
+    public void setRecentDays(int recentDays)      { this.recentDays = Math.max(recentDays, 0); }
+    public void setMeters(int meters)              { this.meters = Math.max(meters, 1); }
+    public void setDefects(double defects)         { this.defects = defects; }
+    public void setSeed(long seed)                 { this.seed = seed; }
+
+    /**********************************************************************
+     * Write the files into the given directory - MeterReadings.dat,
+     * elecgas.txt and Rates.dat; or, for more than one meter, a directory
+     * of them per meter.
+     *
+     * @param dir, the directory to write into; created if need be
+     * @return the directories the files were written to, one per meter
+     * @throws IOException if the files can't be written
+     */
+
+    public List<File> generate(File dir) throws IOException
+    {
+        List<File> written = new ArrayList<File>();
+        for (int m = 1; m <= meters; m++)
+        {
+            File d = (meters == 1) ? dir : new File(dir, String.format("meter%03d", m));
+            if (! d.isDirectory() && ! d.mkdirs())
+            {
+                throw new IOException("Unable to create directory " + d);
+            }
+            Random random = new Random(seed * 1000003 + m);
+            writeRates(new File(d, "Rates.dat"), random);
+            writeReadings(new File(d, "MeterReadings.dat"), new File(d, "elecgas.txt"), random);
+            written.add(d);
+        }
+        return written;
+    }
+
+    //----------------------------------------------------------------------
+    // Rates: a change every tariffDays, the first on the start date. Prices
+    // drift up and down; now and again (a defect) a change is given twice
+    // for the same date, the second one being the one that counts.
+
+    private void writeRates(File f, Random random) throws IOException
+    {
+        double gs = 0.27, gu = 0.07, es = 0.46, eu = 0.28;
+        try (ReportWriter stream = new ReportWriter(f.getPath(), Locale.ROOT))
+        {
+            stream.printf("# Rates - gas standing, gas unit, elec standing, elec unit\n");
+            for (int i = 0; i < days; i += tariffDays)
+            {
+                int day = (int) start.toEpochDay() + i;
+                if (random.nextDouble() < defects)
+                {
+                    rate(stream, day, gs * 1.1, gu * 1.1, es * 1.1, eu * 1.1);
+                }
+                rate(stream, day, gs, gu, es, eu);
+                gs = drift(gs, random);
+                gu = drift(gu, random);
+                es = drift(es, random);
+                eu = drift(eu, random);
+            }
+            UtilityData.checkReport(stream, f.getName());
+        }
+    }
+
+    private static void rate(ReportWriter stream, int day, double gs, double gu, double es, double eu)
+    {
+        date(stream, day);
+        stream.put(' ').fixed(gs, 1, 4).put(' ').fixed(gu, 1, 4)
+              .put(' ').fixed(es, 1, 4).put(' ').fixed(eu, 1, 4).endLine();
+    }
+
+    // A price up or down by up to 10%, kept within sensible bounds
+    private static double drift(double price, Random random)
+    {
+        return Math.min(Math.max(price * (0.9 + 0.2 * random.nextDouble()), 0.01), 2.0);
+    }
+
+    //----------------------------------------------------------------------
+    // Readings: the meters tick up by the day's usage, gas following the
+    // seasons; a reading is taken every 1..maxGap days, always including
+    // the first and last day.
+
+    private void writeReadings(File historic, File recent, Random random) throws IOException
+    {
+        int first = (int) start.toEpochDay(), last = first + days - 1;
+        int split = last - recentDays + 1;
+        double scale = 0.5 + random.nextDouble();	// This household's usage
+        double elec = 10000 + 40000 * random.nextDouble();
+        double gas = 1000 + 4000 * random.nextDouble();
+
+        try (ReportWriter h = new ReportWriter(historic.getPath(), Locale.ROOT);
+             ReportWriter r = new ReportWriter(recent.getPath(), Locale.ROOT))
+        {
+            h.printf("# Meter readings - date, electricity (kWh), gas (m3)\n");
+            int next = first;
+            int pending = -1;			// Day of a line held back to go out of order
+            double pendingElec = 0, pendingGas = 0;
+            for (int day = first; day <= last; day++)
+            {
+                double season = Math.cos(2 * Math.PI * (EpochDays.dayOfYear(day) - 15) / 365.25);
+                gas  += Math.max(0.05, scale * gasPerDay * (1 + gasSwing * season) * (0.8 + 0.4 * random.nextDouble()));
+                elec += scale * elecPerDay * (0.85 + 0.3 * random.nextDouble() + 0.1 * season);
+                if (day != next)
+                {
+                    continue;
+                }
+                next = day + 1 + random.nextInt(maxGap);
+                if (next > last)
+                {
+                    next = last;
+                }
+                if (day == last)
+                {
+                    next = last + 1;
+                }
+
+                // The line goes in one file or the other, or near the split both
+                ReportWriter[] targets;
+                if (day < split - OVERLAP)
+                {
+                    targets = new ReportWriter[] { h };
+                }
+                else if (day >= split + OVERLAP)
+                {
+                    targets = new ReportWriter[] { r };
+                }
+                else
+                {
+                    targets = new ReportWriter[] { h, r };
+                }
+
+                boolean defect = (random.nextDouble() < defects);
+                int kind = defect ? random.nextInt(5) : -1;
+                if ((kind == 4) && (pending < 0) && (day < last) &&
+                    ((day + maxGap < split - OVERLAP) || (day >= split + OVERLAP)))
+                {
+                    // Out of order: hold this line back, to be written after
+                    // the next one (which is sure to go to the same file)
+                    pending = day;
+                    pendingElec = elec;
+                    pendingGas = gas;
+                    continue;
+                }
+                for (ReportWriter stream : targets)
+                {
+                    switch (kind)
+                    {
+                        case 0:		// Comment or blank line
+                            stream.printf(random.nextBoolean() ? "# Estimated - check next bill\n" : "\n");
+                            reading(stream, day, elec, gas, "\n");
+                            break;
+                        case 1:		// Malformed line, then the real one
+                            date(stream, day);
+                            stream.put(' ').fixed(elec, 1, 1).text(" ??").endLine();
+                            reading(stream, day, elec, gas, "\n");
+                            break;
+                        case 2:		// Mistyped reading, then corrected
+                            reading(stream, day, elec + 100, gas, "\n");
+                            reading(stream, day, elec, gas, "\n");
+                            break;
+                        case 3:		// CRLF ending
+                            reading(stream, day, elec, gas, "\r\n");
+                            break;
+                        default:
+                            reading(stream, day, elec, gas, "\n");
+                            break;
+                    }
+                    if (pending >= 0)
+                    {
+                        reading(stream, pending, pendingElec, pendingGas, "\n");
+                    }
+                }
+                pending = -1;
+            }
+            UtilityData.checkReport(h, historic.getName());
+            UtilityData.checkReport(r, recent.getName());
+        }
+    }
+
+    // Write one reading line
+    private static void reading(ReportWriter stream, int day, double elec, double gas, String ending)
+    {
+        date(stream, day);
+        stream.put(' ').fixed(elec, 1, 1).put(' ').fixed(gas, 1, 3);
+        if (ending.length() > 1)
+        {
+            stream.put('\r');
+        }
+        stream.endLine();
+    }
+
+    // Write a date as dd/MM/yyyy
+    private static void date(ReportWriter stream, int day)
+    {
+        int ymd = EpochDays.civil(day);
+        stream.zeroPadded(EpochDays.dayOfMonth(ymd), 2).put('/')
+              .zeroPadded(EpochDays.month(ymd), 2).put('/')
+              .zeroPadded(EpochDays.year(ymd), 4);
+    }
+
+    /**********************************************************************
+     * main method - generate data from command line settings
+     *
+     * @param array of strings, program arguments
+     */
+
+    public static void main(String[] args)
+    {
+        MeterDataGenerator g = new MeterDataGenerator();
+        File dir = new File(".");
+        try
+        {
+            for (int i = 0; i < args.length; i++)
+            {
+                String arg = args[i];
+                String value = (i + 1 < args.length) ? args[++i] : "";
+                switch (arg)
+                {
+                    case "--dir":     dir = new File(value);                          break;
+                    case "--start":   g.setStart(LocalDate.parse(value));             break;
+                    case "--days":    g.setDays(Integer.parseInt(value));             break;
+                    case "--years":   g.setDays((int) Math.round(Double.parseDouble(value) * 365.25)); break;
+                    case "--gap":     g.setMaxGap(Integer.parseInt(value));           break;
+                    case "--gas":     g.setGasUsage(Double.parseDouble(value), g.gasSwing); break;
+                    case "--swing":   g.setGasUsage(g.gasPerDay, Double.parseDouble(value)); break;
+                    case "--elec":    g.setElecUsage(Double.parseDouble(value));      break;
+                    case "--tariff":  g.setTariffDays(Integer.parseInt(value));       break;
+                    case "--recent":  g.setRecentDays(Integer.parseInt(value));       break;
+                    case "--meters":  g.setMeters(Integer.parseInt(value));           break;
+                    case "--defects": g.setDefects(Double.parseDouble(value));        break;
+                    case "--seed":    g.setSeed(Long.parseLong(value));               break;
+                    default:
+                        System.out.println("Unknown option '" + arg + "'");
+                        System.out.println("Options: --dir --start yyyy-mm-dd --days --years --gap --gas --swing " +
+                                           "--elec --tariff --recent --meters --defects --seed");
+                        System.exit(1);
+                }
+            }
+            for (File d : g.generate(dir))
+            {
+                System.out.println("Written " + d);
+            }
+        }
+        catch (RuntimeException e)
+        {
+            System.out.println("Bad option value: " + e.getMessage());
+            System.exit(1);
+        }
+        catch (IOException e)
+        {
+            System.out.println("Unable to write data: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+}
@@ -7,58 +7,420 @@
  */
 
 import java.time.*;
+import java.time.format.*;
 import java.io.*;
+import java.nio.file.NoSuchFileException;
+import java.util.*;
+import java.util.function.IntSupplier;
 
 public class MeterProcessMain
 {
     /**********************************************************************
-     * main method - program entry point
+     * main method - program entry point. With no arguments, processes
+     * our own readings; with
+     *
+     *   --fleet <input directory> <output directory> [threads]
+     *
+     * processes every property under the input directory instead (see
+     * FleetProcessor); with
+     *
+     *   --stream
+     *
+     * writes the same reports in a single pass in fixed memory, for
+     * histories too long to hold (see StreamingPipeline); with
+     *
+     *   --watch
+     *
+     * keeps running, updating the reports whenever the readings or rates
+     * change (see MeterDaemon); and with
+     *
+     *   --add <dd/MM/yyyy> <elec reading> <gas reading>
+     *   --add-rate <dd/MM/yyyy> <gas standing> <gas unit> <elec standing> <elec unit>
+     *   --compact
+     *
+     * adds a reading or rates to the readings journal, or compacts it (see
+     * ReadingsJournal). With any of these, options say which files
+     * to read, where to write and which reports to write - see RunPlan;
+     * among them
+     *
+     *   --stats
+     *
+     * writes Stages.dat, beside the reports, giving the time taken and
+     * memory allocated by each stage of the run (see Stages).
      *
      * @param array of strings, program arguments
      */
 
     public static void main(String[] args)
     {
-        LocalDate d = LocalDate.of(2023, 5, 1);
-        
-        UtilityData u = new UtilityData();	// Implicitly reads the rates data
+        RunPlan plan = null;
+        try
+        {
+            plan = new RunPlan(args);
+        }
+        catch (IllegalArgumentException e)
+        {
+            System.out.println(e.getMessage());
+            usage();
+            System.exit(1);
+        }
+        List<String> rest = plan.args();
+        String mode = rest.isEmpty() ? "" : rest.get(0);
+        if (! argumentsFit(rest))
+        {
+            System.out.println(Arrays.asList(RunPlan.MODES).contains(mode)
+                               ? "Wrong arguments for " + mode
+                               : "Unknown mode '" + String.join(" ", rest) + "'");
+            usage();
+            System.exit(1);
+        }
+        boolean fleetMode = mode.equals("--fleet");
+        if (plan.stats())
+        {
+            // Beside the reports - for a fleet, in the directory they all go under
+            Stages.setSummary(fleetMode ? new File(rest.get(2), "Stages.dat")
+                                        : new File(plan.outputDirectory() + "Stages.dat"));
+        }
 
-        // First read the historic data
-        u.setReadingsFromFile(new File("/home/cmb/misc/Home/StationRoad/Utilities/MeterReadings.dat"));
+        if (fleetMode)
+        {
+            int threads = (rest.size() > 3) ? Integer.parseInt(rest.get(3))
+                                            : Runtime.getRuntime().availableProcessors();
+            try
+            {
+                FleetProcessor fleet = new FleetProcessor(new File(rest.get(1)), new File(rest.get(2)),
+                                                           threads, plan);
+                int failed = fleet.run();
+                Stages.writeSummary();
+                System.exit((failed == 0) ? 0 : 1);
+            }
+            catch (IOException e)
+            {
+                System.out.println("Unable to read " + rest.get(1) + ": " + e.getMessage());
+                System.exit(1);
+            }
+        }
 
-        // Then read in and add to the same dataset the more recent stuff from Dropbox...
-        u.setReadingsFromFile(new File("/home/cmb/Dropbox/Misc/elecgas.txt"));
+        File historic = plan.historic();
+        File dropbox  = plan.recent();
+        File snapshot = new File(plan.outputDirectory() + "MeterProcess.snapshot");
 
-        u.interpolateReadings();	// Find the "in-between" meter readings
-        u.calculateDailyCosts();	// Calculate all the derived values, inc costs
+        if (mode.equals("--add") || mode.equals("--add-rate") || mode.equals("--compact"))
+        {
+            System.exit(journalCommand(plan.journal(), rest));
+        }
 
-        // Print daily costs to file for plotting;     argument is output filename
-        u.printUtilityCosts("Daily.dat");
-        
-	// Print weekly data to file for plotting;     argument is output filename
-        u.printWeeklyReadings("Weekly.dat");
-        
-	// Print per-day summary to file for plotting; argument is output filename
-        u.printPerDayReadings("DaysOfWeek.dat");
-        
-	// Print monthly data to file for plotting;    argument is output filename
-        u.printMonthlyReadings("Monthly.dat");
+        if (mode.equals("--watch"))
+        {
+            try
+            {
+                new MeterDaemon(plan).run();
+            }
+            catch (IOException e)
+            {
+                System.out.println("Unable to watch for changes: " + e.getMessage());
+                System.exit(1);
+            }
+            catch (InterruptedException e)
+            {
+                // Asked to stop
+            }
+            return;
+        }
+
+        if (mode.equals("--stream"))
+        {
+            RatesData rates = null;
+            try
+            {
+                rates = new RatesData(plan.rates());
+            }
+            catch (IOException e)
+            {
+                System.out.println(e.getMessage());
+                System.exit(0);
+            }
+            // Anything added through the journal wins over the files
+            ReadingsJournal.Contents journal = readJournal(plan);
+            journal.applyTo(rates);
+            StreamingPipeline pipeline = new StreamingPipeline(rates);
+            pipeline.setOutputDirectories(plan.outputDirectory(), plan.plotDirectory());
+            pipeline.setReports(plan);
+            pipeline.setJournal(journal);
+            try
+            {
+                pipeline.run(historic, dropbox);
+                Stages.writeSummary();
+            }
+            catch (NoSuchFileException | FileNotFoundException e)
+            {
+                System.out.println(e.getMessage() + " file not found");
+                System.exit(1);
+            }
+            catch (IOException e)
+            {
+                System.out.println("Unable to process readings: " + e.getMessage());
+                System.exit(1);
+            }
+            return;
+        }
+
+        // If none of the inputs have changed since last time, the calculated
+        // data saved then can be used as it is
+        long fingerprint = 0;
+        UtilityData u = null;
+        try
+        {
+            List<File> inputs = new ArrayList<>(Arrays.asList(historic, dropbox, plan.rates()));
+            for (File f : new File[] { plan.journal(), ReadingsJournal.snapshotFile(plan.journal()) })
+            {
+                if (f.isFile())
+                {
+                    inputs.add(f);
+                }
+            }
+            fingerprint = UtilitySnapshot.fingerprint(inputs.toArray(new File[0]));
+            u = UtilitySnapshot.load(snapshot, fingerprint);
+        }
+        catch (IOException e)
+        {
+            // An input is missing - carry on, and let reading it report that
+        }
+
+        if (u == null)
+        {
+            try
+            {
+                u = new UtilityData(new RatesData(plan.rates()));
+
+                // Read the historic data and the more recent stuff from Dropbox in one
+                // merge; where the two overlap on a date the Dropbox reading wins
+                u.setReadingsFromFiles(historic, dropbox);
+            }
+            catch (IOException e)
+            {
+                System.out.println(e.getMessage());
+                System.exit(0);
+            }
+
+            // Then anything added through the journal, which wins over both
+            ReadingsJournal.Contents journal = readJournal(plan);
+            journal.applyTo(u);
+            journal.applyTo(u.rates());
+
+            u.interpolateReadings();	// Find the "in-between" meter readings
+            u.calculateDailyCosts();	// Calculate all the derived values, inc costs
+
+            try
+            {
+                UtilitySnapshot.save(snapshot, u, fingerprint);
+            }
+            catch (IOException e)
+            {
+                System.out.println("Unable to save snapshot: " + e.getMessage());
+            }
+        }
+        u.setOutputDirectories(plan.outputDirectory(), plan.plotDirectory());
+
+        // Only rewrite the reports that have changed since last time
+        ReportCache cache = new ReportCache(new File(plan.outputDirectory() + "Reports.manifest"));
+        u.setReportCache(cache);
 
-        // Print daily cost and usage data to file for each year separately, so they
-        // can be compared
-        u.printYearOnYearCosts("Year");
-        
         //------------------------------------------------------------------
-        // Calculate smoothed out data - a new daily value is average of
-        // previous 30 days values...
+        // Calculate smoothed out data, if any is wanted - a new daily value
+        // is average of next 30 days values...
         
-        UtilityData uSmooth = new UtilityData();
-        uSmooth.setReadingsFromExisting(u);	// Calculates smoothed out values
+        UtilityData uSmooth = null;
+        if (plan.needsSmoothing())
+        {
+            uSmooth = u.smoothed(new SmoothingEngine.Spec(SmoothingEngine.MONTH,
+                                                          SmoothingEngine.Kernel.LEADING))[0];
+            uSmooth.aggregates();
+        }
 
-        uSmooth.printUtilityCosts("SmoothDaily.dat");
-        uSmooth.printWeeklyReadings("SmoothWeekly.dat");
-        uSmooth.printMonthlyReadings("SmoothMonthly.dat");
-        uSmooth.printYearOnYearCosts("SmoothYear");
-        
+        //------------------------------------------------------------------
+        // Write all the reports at once, each on its own thread. The data
+        // isn't changed from here on, and the totals the reports share are
+        // worked out first, so the reports only read it.
+
+        u.aggregates();
+
+        try (ReportScheduler reports = new ReportScheduler())
+        {
+            submitReports(reports, plan, u, uSmooth);
+        }
+        saveCache(cache);
+        Stages.writeSummary();
+    }
+
+    // Returns true if the mode is known, and has the right number of
+    // arguments - so a mistyped command doesn't fall back on the usual run
+    private static boolean argumentsFit(List<String> rest)
+    {
+        switch (rest.isEmpty() ? "" : rest.get(0))
+        {
+            case "":
+                return true;
+            case "--fleet":
+                if (rest.size() == 4)
+                {
+                    try
+                    {
+                        return Integer.parseInt(rest.get(3)) > 0;
+                    }
+                    catch (NumberFormatException e)
+                    {
+                        return false;
+                    }
+                }
+                return rest.size() == 3;
+            case "--stream":
+            case "--watch":
+            case "--compact":
+                return rest.size() == 1;
+            case "--add":
+                return rest.size() == 4;
+            case "--add-rate":
+                return rest.size() == 6;
+            default:
+                return false;
+        }
+    }
+
+    private static void usage()
+    {
+        System.out.println("Usage: MeterProcess [options] [mode], the mode one of");
+        System.out.println("  --fleet <input directory> <output directory> [threads]");
+        System.out.println("  --stream");
+        System.out.println("  --watch");
+        System.out.println("  --add <dd/MM/yyyy> <elec reading> <gas reading>");
+        System.out.println("  --add-rate <dd/MM/yyyy> <gas standing> <gas unit> <elec standing> <elec unit>");
+        System.out.println("  --compact");
+        System.out.println("Options: --config <file> --historic <file> --recent <file> --rates <file> " +
+                           "--journal <file>");
+        System.out.println("         --output <dir> --plots <dir> --reports <names> --stats");
+    }
+
+    // The readings and rates in the journal - none if there isn't one
+    private static ReadingsJournal.Contents readJournal(RunPlan plan)
+    {
+        File f = plan.journal();
+        try
+        {
+            return ReadingsJournal.read(f);
+        }
+        catch (IOException e)
+        {
+            System.out.println("Unable to read " + f.getName() + ": " + e.getMessage());
+            System.exit(1);
+            return null;
+        }
+    }
+
+    /**********************************************************************
+     * Add a reading or rates to the journal, or compact it
+     *
+     * @param f, the journal
+     * @param args, the mode and its arguments
+     * @return exit status
+     */
+
+    static int journalCommand(File f, List<String> args)
+    {
+        String mode = args.get(0);
+        int values = mode.equals("--add") ? 2 : mode.equals("--add-rate") ? 4 : -1;
+        if ((values > 0) && (args.size() != values + 2))
+        {
+            System.out.println(mode + " needs a date and " + values + " values");
+            return 1;
+        }
+        try (ReadingsJournal journal = new ReadingsJournal(f))
+        {
+            if (values < 0)
+            {
+                journal.compact();
+                return 0;
+            }
+            LocalDate d = LocalDate.parse(args.get(1), DateTimeFormatter.ofPattern("dd/MM/yyyy"));
+            double[] v = new double[values];
+            for (int i = 0; i < values; i++)
+            {
+                v[i] = Double.parseDouble(args.get(i + 2));
+            }
+            if (values == 2)
+            {
+                journal.addReading(d, v[0], v[1]);
+            }
+            else
+            {
+                journal.addRate(d, v[0], v[1], v[2], v[3]);
+            }
+            journal.commit();
+            return 0;
+        }
+        catch (DateTimeParseException | NumberFormatException e)
+        {
+            System.out.println("Bad value: " + e.getMessage());
+            return 1;
+        }
+        catch (IOException e)
+        {
+            System.out.println("Unable to update " + f.getName() + ": " + e.getMessage());
+            return 1;
+        }
+    }
+
+    // Save the record of reports written; if it can't be, they are all
+    // just written again next time
+    static void saveCache(ReportCache cache)
+    {
+        try
+        {
+            cache.save();
+        }
+        catch (IOException e)
+        {
+            System.out.println("Unable to save report manifest: " + e.getMessage());
+        }
+    }
+
+    /**********************************************************************
+     * Hand the reports a plan wants to a scheduler to write
+     *
+     * @param reports, the scheduler
+     * @param plan, saying which reports are wanted
+     * @param u, the household's data, with aggregates worked out
+     * @param uSmooth, the same smoothed, with aggregates worked out - may
+     *                 be null if no smoothed reports are wanted
+     */
+
+    static void submitReports(ReportScheduler reports, RunPlan plan, UtilityData u, UtilityData uSmooth)
+    {
+        // Daily costs, for plotting
+        submit(reports, plan, "Daily.dat",      () -> u.printUtilityCosts("Daily.dat"));
+        // Weekly data, for plotting
+        submit(reports, plan, "Weekly.dat",     () -> u.printWeeklyReadings("Weekly.dat"));
+        // Per-day summary, for plotting
+        submit(reports, plan, "DaysOfWeek.dat", () -> u.printPerDayReadings("DaysOfWeek.dat"));
+        // Monthly data, for plotting
+        submit(reports, plan, "Monthly.dat",    () -> u.printMonthlyReadings("Monthly.dat"));
+        // Daily cost and usage data for each year separately, so they
+        // can be compared
+        submit(reports, plan, "Year",           () -> u.printYearOnYearCosts("Year"));
+
+        // And the same for the smoothed data
+        submit(reports, plan, "SmoothDaily.dat",   () -> uSmooth.printUtilityCosts("SmoothDaily.dat"));
+        submit(reports, plan, "SmoothWeekly.dat",  () -> uSmooth.printWeeklyReadings("SmoothWeekly.dat"));
+        submit(reports, plan, "SmoothMonthly.dat", () -> uSmooth.printMonthlyReadings("SmoothMonthly.dat"));
+        submit(reports, plan, "SmoothYear",        () -> uSmooth.printYearOnYearCosts("SmoothYear"));
+    }
+
+    // Hand a report to a scheduler if the plan wants it
+    static void submit(ReportScheduler reports, RunPlan plan, String name, IntSupplier report)
+    {
+        if (plan.wants(name))
+        {
+            reports.submit(name, report);
+        }
     }
 }
@@ -3,12 +3,21 @@
  * rates apply, standing charges for gas and electric, and daily rates for
  * gas and electric.
  *
+ * Electricity can also be priced by time of use, half hour by half hour,
+ * for costing smart meter interval data (see CostKernel):
+ *
+ *   - time bands, such as Economy 7's cheap nights - from a given date,
+ *     a price for the half hours between two times of day, with the
+ *     normal unit rate the rest of the day;
+ *   - a dynamic price series, 48 prices for each day it covers, in the
+ *     same file format as IntervalData; where it has a day, its prices
+ *     are used in place of the bands and the unit rate.
+ *
  * @author Colin Brough
  * @version Dev_01
  */
 
 import java.time.*;
-import java.time.format.DateTimeFormatter;
 import java.util.*;
 import java.io.*;
 import java.nio.file.*;
@@ -18,8 +27,22 @@ public class RatesData
     //----------------------------------------------------------------------
     // Instance variable - ArrayList holding rates, implicitly ordered by
     // date, rates applying most recently added last to the end of the list.
+    // Alongside it, the epoch day each rate applies from, as a sorted
+    // array that can be binary searched.
 
     private ArrayList<RatesField> rates;
+    private int[] fromDay = new int[16];
+
+    //----------------------------------------------------------------------
+    // Electricity time of use. Band set b applies from epoch day
+    // bandDay[b] until the next; bandPrice[b][s] is the price in half hour
+    // slot s, or NaN where the normal unit rate applies. The dynamic
+    // prices, if any, override the bands for the days they cover.
+
+    int bandCount;
+    int[] bandDay = new int[4];
+    double[][] bandPrice = new double[4][];
+    IntervalData dynamicPrices;
     
     /**********************************************************************
      * Constructor for objects of class RatesData, no arguments
@@ -53,47 +76,49 @@ public class RatesData
      * whose name is passed in as argument
      *
      * @param a file to read rates data from
+     * @throws FileNotFoundException if the file isn't there
+     * @throws IOException if it can't be read
      */
 
-    public RatesData(File f)
+    public RatesData(File f) throws IOException
     {
         rates = new ArrayList<>();
+        Stages.Stage stage = Stages.start("rates");
 
-        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("dd/MM/yyyy");
-        try (Scanner sc = new Scanner(f))
+        ReadingsParser.Result r;
+        try
         {
-            while (sc.hasNextLine())
-            {
-                String line = sc.nextLine();
-                if (line.startsWith("#"))
-                {
-                    continue;	// Skip past comment lines
-                }
-                String dateString = line.substring(0,10);
-                LocalDate d = LocalDate.parse(dateString, formatter);
-                Scanner scl = new Scanner(line.substring(10));
-                
-                this.addRate(scl.nextDouble(), // Gas standing charge
-                             scl.nextDouble(), // Gas unit price
-                             scl.nextDouble(), // Electric standing charge
-                             scl.nextDouble(), // Electric unit price
-                             d);               // Date
-                scl.close();
-            }
-            sc.close();
+            r = ReadingsParser.parse(f, 4);
+        }
+        catch (NoSuchFileException | FileNotFoundException e)
+        {
+            throw new FileNotFoundException(f.getName() + " file not found");
+        }
+        catch (IOException e)
+        {
+            throw new IOException("Unable to read " + f.getName() + ": " + e.getMessage(), e);
+        }
+        for (String error : r.errors)
+        {
+            System.out.println("WARNING: skipping malformed line " + error);
         }
-        catch (FileNotFoundException e)
+        for (int i = 0; i < r.count; i++)
         {
-            System.out.println("Rates.dat file not found");
-            System.exit(0);
+            this.addRate(r.values[0][i], // Gas standing charge
+                         r.values[1][i], // Gas unit price
+                         r.values[2][i], // Electric standing charge
+                         r.values[3][i], // Electric unit price
+                         LocalDate.ofEpochDay(r.days[i]));	// Date
         }
+        stage.end(r.count);
     }
 
     /**********************************************************************
      * Add a set of rates data - standing charges and daily rates as they
-     * apply from the given dates. Assumption is that rates are added in
-     * date order, so most recent date is added last - and ends up on the
-     * end of the 'rates' ArrayList.
+     * apply from the given dates. Rates are normally added in date order,
+     * so most recent date is added last - and ends up on the end of the
+     * 'rates' ArrayList. If not, the rate is inserted in date order, found
+     * by binary search, after any rates already present for the same date.
      *
      * @param double gas daily standing charge
      * @param double gas unit price
@@ -111,33 +136,247 @@ public class RatesData
         rateE.gasunitrate  = gasUnit;
         rateE.elecstanding = elecStanding;
         rateE.elecunitrate = elecUnit;
-        rates.add(rateE);
-        Collections.sort(rates);	// Make sure entries are date sorted
+
+        int day = (int) d.toEpochDay();
+        int i = upperBound(day);
+        if (rates.size() == fromDay.length)
+        {
+            fromDay = Arrays.copyOf(fromDay, fromDay.length * 2);
+        }
+        System.arraycopy(fromDay, i, fromDay, i + 1, rates.size() - i);
+        fromDay[i] = day;
+        rates.add(i, rateE);
+    }
+
+    /**********************************************************************
+     * Returns the number of rates held
+     */
+
+    public int size()
+    {
+        return rates.size();
+    }
+
+    /**********************************************************************
+     * Returns the i'th rate held, in date order
+     *
+     * @param index of rate
+     * @return RatesField for that rate
+     */
+
+    public RatesField get(int i)
+    {
+        return rates.get(i);
+    }
+
+    /**********************************************************************
+     * Binary search for the number of rates that apply from or before the
+     * given epoch day - ie the index of the first rate applying after it.
+     *
+     * @param epoch day
+     * @return index of the first rate starting after that day
+     */
+
+    private int upperBound(int day)
+    {
+        int lo = 0, hi = rates.size();
+        while (lo < hi)
+        {
+            int mid = (lo + hi) >>> 1;
+            if (fromDay[mid] <= day)
+            {
+                lo = mid + 1;
+            }
+            else
+            {
+                hi = mid;
+            }
+        }
+        return lo;
     }
 
     /**********************************************************************
-     * Private method to return the RatesField that applies to the date
-     * passed in. Start at most recent (last in 'rates' ArrayList), and
-     * work down till the date passed isn't less than the one in the
-     * RatesField. Used by the getters for applicable gas/electric rates.
+     * Method to return the RatesField that applies to the date passed
+     * in - the last one whose date isn't after it, found by binary search.
+     * Used by the getters for applicable gas/electric rates.
      */
 
     public RatesField getRate(LocalDate d)
     {
-        if (rates.size() == 0)
+        int i = upperBound((int) d.toEpochDay());
+        if (i == 0)
         {
-            return null;
+            return null;	// Return null if no valid rate found
         }
-        for (int i = rates.size()-1; i >= 0; i--)
+        return rates.get(i - 1);
+    }
+
+    /**********************************************************************
+     * Bulk rate lookup - fills in all four rates for each of a date
+     * ordered run of epoch days in one merge-style pass, so costing n days
+     * against r rates takes O(n + r) rather than four searches a day. Days
+     * before the first rate get zero, as the single-day getters return.
+     *
+     * @param days, epoch days in ascending order
+     * @param from, index of first entry of 'days' to resolve
+     * @param to, index one beyond the last entry to resolve
+     * @param gasStanding, filled in with gas standing charges
+     * @param gasUnit, filled in with gas unit prices
+     * @param elecStanding, filled in with electric standing charges
+     * @param elecUnit, filled in with electric unit prices
+     */
+
+    public void resolveRates(int[] days, int from, int to,
+                             double[] gasStanding, double[] gasUnit,
+                             double[] elecStanding, double[] elecUnit)
+    {
+        if (from >= to)
+        {
+            return;
+        }
+        int n = rates.size();
+        int r = upperBound(days[from]);	// Rates applying so far
+        RatesField current = (r > 0) ? rates.get(r - 1) : null;
+
+        for (int i = from; i < to; i++)
         {
-            if (! d.isBefore(rates.get(i).date))
+            while ((r < n) && (fromDay[r] <= days[i]))
             {
-                return rates.get(i);
+                current = rates.get(r++);
+            }
+            if (current == null)
+            {
+                gasStanding[i] = gasUnit[i] = elecStanding[i] = elecUnit[i] = 0.0;
+            }
+            else
+            {
+                gasStanding[i]  = current.gasstanding;
+                gasUnit[i]      = current.gasunitrate;
+                elecStanding[i] = current.elecstanding;
+                elecUnit[i]     = current.elecunitrate;
             }
         }
-        return null;	// Return null if no valid rate found
     }
     
+    /**********************************************************************
+     * Add a time band to the electricity prices: from the given date
+     * (until bands are next given, for a later date), the given unit price
+     * applies between two times of day. Bands for the same date build up
+     * one set; a band whose start and end times are the same covers the
+     * whole day, so a set of just that gives a single price all day.
+     *
+     * @param d, date the band applies from
+     * @param firstSlot, half hour slot the band starts, 0..47
+     * @param endSlot, half hour slot after the band ends, 0..47; if before
+     *        firstSlot, the band runs on past midnight, and if the same,
+     *        it runs all day
+     * @param elecUnit, electricity unit price in the band
+     * @throws IllegalArgumentException if a slot is out of range
+     */
+
+    public void addBand(LocalDate d, int firstSlot, int endSlot, double elecUnit)
+    {
+        if ((firstSlot < 0) || (firstSlot >= IntervalData.SLOTS) ||
+            (endSlot < 0) || (endSlot >= IntervalData.SLOTS))
+        {
+            throw new IllegalArgumentException("band slots " + firstSlot + " to " + endSlot +
+                                               " out of range");
+        }
+        int day = (int) d.toEpochDay();
+        int b = Arrays.binarySearch(bandDay, 0, bandCount, day);
+        if (b < 0)
+        {
+            b = -b - 1;
+            if (bandCount == bandDay.length)
+            {
+                bandDay   = Arrays.copyOf(bandDay,   bandCount * 2);
+                bandPrice = Arrays.copyOf(bandPrice, bandCount * 2);
+            }
+            System.arraycopy(bandDay,   b, bandDay,   b + 1, bandCount - b);
+            System.arraycopy(bandPrice, b, bandPrice, b + 1, bandCount - b);
+            bandDay[b] = day;
+            bandPrice[b] = new double[IntervalData.SLOTS];
+            Arrays.fill(bandPrice[b], Double.NaN);
+            bandCount++;
+        }
+        int s = firstSlot;
+        do
+        {
+            bandPrice[b][s] = elecUnit;
+            s = (s + 1) % IntervalData.SLOTS;
+        } while (s != endSlot);
+    }
+
+    /**********************************************************************
+     * Read electricity time bands from a file, one band per line:
+     *
+     *   dd/MM/yyyy start end price
+     *
+     * with the start and end as 24 hour times on the half hour, hhmm - so
+     * a typical Economy 7 night is "01/04/2024 0030 0730 0.0950". The
+     * start is 0000 to 2330 and the end 0000 to 2400; a band ending at or
+     * before its start runs on past midnight, and one ending where it
+     * starts ("0000 2400", "0700 0700") runs all day.
+     *
+     * @param f, the bands file
+     * @throws IOException if the file can't be read
+     */
+
+    public void setBandsFromFile(File f) throws IOException
+    {
+        ReadingsParser.Result r = ReadingsParser.parse(f, 3);
+        for (String error : r.errors)
+        {
+            System.out.println("WARNING: skipping malformed line " + error);
+        }
+        for (int i = 0; i < r.count; i++)
+        {
+            int first = slotOf(r.values[0][i]), end = slotOf(r.values[1][i]);
+            if ((first < 0) || (first >= IntervalData.SLOTS) || (end < 0))
+            {
+                System.out.println("WARNING: skipping band with bad times in " + f.getName() +
+                                   " for " + LocalDate.ofEpochDay(r.days[i]));
+                continue;
+            }
+            addBand(LocalDate.ofEpochDay(r.days[i]), first, end % IntervalData.SLOTS, r.values[2][i]);
+        }
+    }
+
+    // The half hour slot starting at a time given as hhmm (2400 is the
+    // end of the day, slot 48), or -1 if it isn't a time on the half hour
+    private static int slotOf(double hhmm)
+    {
+        int t = (int) hhmm;
+        int h = t / 100, m = t % 100;
+        if ((t != hhmm) || (t < 0) || (h > 24) || ((m != 0) && (m != 30)) || ((h == 24) && (m != 0)))
+        {
+            return -1;
+        }
+        return h * 2 + m / 30;
+    }
+
+    /**********************************************************************
+     * Set a dynamic electricity price series - 48 half-hourly prices for
+     * each day it covers - to use in place of the unit rate and bands on
+     * those days.
+     *
+     * @param prices, the prices, read as IntervalData
+     */
+
+    public void setDynamicPrices(IntervalData prices)
+    {
+        dynamicPrices = prices;
+    }
+
+    /**********************************************************************
+     * Returns true if any electricity is priced by time of use
+     */
+
+    public boolean hasTimeOfUse()
+    {
+        return (bandCount > 0) || (dynamicPrices != null);
+    }
+
     /**********************************************************************
      * Returns the gas standing charge that applies on the date passed in
      *
@@ -0,0 +1,747 @@
+/**************************************************************************
+ * Class ReadingsJournal.java to take readings, and rate changes, from
+ * tools rather than by hand - appended to a binary journal file that is
+ * only ever added to, each record checksummed, and made durable (fsync)
+ * in batches rather than one by one.
+ *
+ * Records are buffered by addReading() and addRate(), and written out by
+ * commit(). When several threads commit at once, the first writes and
+ * forces everything buffered so far, including the others' records, and
+ * the rest just wait for it - so the fsyncs are shared out rather than
+ * queued up (group commit). That only batches within one process: each
+ * 'MeterProcess --add' run commits its one record alone.
+ *
+ * Only one process at a time may have the journal open to add to it: the
+ * constructor takes an exclusive lock on a lock file beside the journal,
+ * waiting for it if need be, and close() lets it go. So cutting off a bad
+ * tail, appending, and compacting - which replaces the journal - are never
+ * done by two processes at once. Reading the journal takes no lock; a
+ * reader may see a record still being written, and stops short of it, or
+ * find the journal compacted between reading the snapshot and reading the
+ * journal - which the generations show, and it reads both again.
+ *
+ * Reading the journal back - read() - stops at the first record that is
+ * incomplete or fails its checksum, as the last one will if the machine
+ * stopped part way through writing it; opening the journal to add to it
+ * cuts such a tail off first.
+ *
+ * compact() folds everything into a snapshot file, beside the journal,
+ * holding just the latest reading for each date and the latest rates for
+ * each date, in bulk; and starts the journal afresh. The journal and
+ * snapshot each carry a generation number, so that if compaction stops
+ * between writing the snapshot and starting the new journal, the old
+ * journal - already in the snapshot - is recognised and not read again.
+ *
+ * Journal layout, big-endian:
+ *
+ *   "MPJRNL\r\n"  magic, 8 bytes
+ *   int           format version
+ *   long          generation
+ *   records, each
+ *     byte          READING or RATE
+ *     int           epoch day
+ *     2 x double    electric and gas meter readings, or
+ *     4 x double    gas standing, gas unit, elec standing, elec unit rates
+ *     int           CRC32 of the record so far
+ *
+ * Snapshot layout, big-endian:
+ *
+ *   "MPJSNP\r\n"  magic, 8 bytes
+ *   int           format version
+ *   long          generation of the last journal it holds
+ *   int           number of readings, n
+ *   int           number of rates, r
+ *   n x int       epoch days, in date order
+ *   n x double    electric meter readings
+ *   n x double    gas meter readings
+ *   r x { int day, 4 x double rates }, in date order
+ *   int           CRC32 of everything before it
+ *
+ * @author Colin Brough
+ * @version Dev_01
+ */
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.zip.CRC32;
+
+public class ReadingsJournal implements Closeable
+{
+    static final byte[] MAGIC = "MPJRNL\r\n".getBytes(StandardCharsets.US_ASCII);
+    static final byte[] SNAPMAGIC = "MPJSNP\r\n".getBytes(StandardCharsets.US_ASCII);
+    static final int VERSION = 1;
+
+    // Record types, and their sizes
+    static final byte READING = 1;
+    static final byte RATE = 2;
+    private static final int READINGSIZE = 1 + 4 + 2 * 8 + 4;
+    private static final int RATESIZE = 1 + 4 + 4 * 8 + 4;
+
+    // Size of the journal and snapshot headers
+    private static final int HEADERSIZE = 8 + 4 + 8;
+    private static final int SNAPHEADERSIZE = HEADERSIZE + 4 + 4;
+    // Times to read a journal and its snapshot, if compacted while read
+    private static final int READTRIES = 10;
+
+    private final File file;
+    private final File snapshot;
+    private final FileChannel lockChannel;
+    private final FileLock lock;		// Held from opening to close()
+    private FileChannel channel;
+    private long generation;
+
+    // Records added but not yet written, and the spare buffer they swap
+    // with while a batch is being written
+    private ByteBuffer pending = ByteBuffer.allocate(1 << 12);
+    private ByteBuffer writing = ByteBuffer.allocate(1 << 12);
+    private long added;			// Records added so far
+    private long durable;		// Records written and forced so far
+    private boolean committing;		// A batch is being written
+    private IOException failed;		// Why writing failed, if it has
+
+    /**************************************************************************
+     * What a journal (and its snapshot) holds - readings and rates, in the
+     * order they were added, later ones overriding earlier ones for the
+     * same date
+     */
+
+    public static class Contents
+    {
+        public int count;			// Readings
+        public int[] days = new int[16];
+        public double[] elec = new double[16];
+        public double[] gas = new double[16];
+
+        public int rateCount;			// Rates
+        public int[] rateDays = new int[4];
+        public double[][] rates = new double[4][];	// Gas standing, gas unit, elec standing, elec unit
+
+        long generation;			// Of the last journal read
+        long validLength;			// Bytes of the journal up to the first bad record
+
+        void addReading(int day, double e, double g)
+        {
+            if (count == days.length)
+            {
+                int capacity = Math.max(16, count * 2);
+                days = Arrays.copyOf(days, capacity);
+                elec = Arrays.copyOf(elec, capacity);
+                gas  = Arrays.copyOf(gas,  capacity);
+            }
+            days[count] = day;
+            elec[count] = e;
+            gas[count] = g;
+            count++;
+        }
+
+        void addRate(int day, double[] r)
+        {
+            if (rateCount == rateDays.length)
+            {
+                rateDays = Arrays.copyOf(rateDays, rateCount * 2);
+                rates = Arrays.copyOf(rates, rateCount * 2);
+            }
+            rateDays[rateCount] = day;
+            rates[rateCount] = r;
+            rateCount++;
+        }
+
+        /**********************************************************************
+         * Add the readings to data, overriding any already there for the
+         * same dates; interpolate and cost it afterwards
+         *
+         * @param u, the data
+         */
+
+        public void applyTo(UtilityData u)
+        {
+            for (int i = 0; i < count; i++)
+            {
+                u.addUtilityReading(LocalDate.ofEpochDay(days[i]), elec[i], gas[i]);
+            }
+        }
+
+        /**********************************************************************
+         * Add the rates to rates data - a rate for a date already there
+         * takes over from it
+         *
+         * @param r, the rates data
+         */
+
+        public void applyTo(RatesData r)
+        {
+            for (int i = 0; i < rateCount; i++)
+            {
+                r.addRate(rates[i][0], rates[i][1], rates[i][2], rates[i][3],
+                          LocalDate.ofEpochDay(rateDays[i]));
+            }
+        }
+    }
+
+    /**********************************************************************
+     * Constructor - open a journal to add to, creating it if need be.
+     * Waits until no other process has it open.
+     *
+     * @param file, the journal; its snapshot is the same name plus
+     *              ".snapshot", and its lock file the same name plus ".lock"
+     * @throws IOException if it can't be opened, or isn't a journal
+     */
+
+    public ReadingsJournal(File file) throws IOException
+    {
+        this.file = file;
+        this.snapshot = snapshotFile(file);
+        lockChannel = FileChannel.open(lockFile(file).toPath(), StandardOpenOption.CREATE,
+                                       StandardOpenOption.WRITE);
+        try
+        {
+            lock = lockChannel.lock();
+            long snapshotGeneration = snapshotGeneration(snapshot);
+            if (! file.isFile() || (journalGeneration(file) <= snapshotGeneration))
+            {
+                // New, or compaction stopped before the new journal was started
+                start(snapshotGeneration + 1);
+            }
+            Contents c = read(file);
+            generation = c.generation;
+            channel = open(file);
+            try
+            {
+                if (c.validLength < channel.size())
+                {
+                    channel.truncate(c.validLength);
+                    channel.force(true);
+                }
+            }
+            catch (IOException e)
+            {
+                channel.close();
+                throw e;
+            }
+        }
+        catch (IOException | RuntimeException e)
+        {
+            lockChannel.close();	// Releases the lock too
+            throw e;
+        }
+    }
+
+    // The snapshot a journal compacts into
+    static File snapshotFile(File journal)
+    {
+        return new File(journal.getPath() + ".snapshot");
+    }
+
+    // The file locked while a journal is open to add to
+    static File lockFile(File journal)
+    {
+        return new File(journal.getPath() + ".lock");
+    }
+
+    // Open a journal to append to
+    private static FileChannel open(File f) throws IOException
+    {
+        return FileChannel.open(f.toPath(), StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    //----------------------------------------------------------------------
+    // Adding
+
+    /**********************************************************************
+     * Add a reading - durable once committed
+     *
+     * @param d, date of the reading
+     * @param elecMeter, electric meter reading
+     * @param gasMeter, gas meter reading
+     * @return the record's sequence number, for commit()
+     */
+
+    public synchronized long addReading(LocalDate d, double elecMeter, double gasMeter)
+    {
+        ByteBuffer b = room(READINGSIZE);
+        int start = b.position();
+        b.put(READING).putInt((int) d.toEpochDay()).putDouble(elecMeter).putDouble(gasMeter);
+        b.putInt(crc(b, start));
+        return ++added;
+    }
+
+    /**********************************************************************
+     * Add rates, applying from a date - durable once committed
+     *
+     * @param d, date the rates apply from
+     * @param gasStanding, gas daily standing charge
+     * @param gasUnit, gas unit price
+     * @param elecStanding, electric daily standing charge
+     * @param elecUnit, electric unit price
+     * @return the record's sequence number, for commit()
+     */
+
+    public synchronized long addRate(LocalDate d, double gasStanding, double gasUnit,
+                                     double elecStanding, double elecUnit)
+    {
+        ByteBuffer b = room(RATESIZE);
+        int start = b.position();
+        b.put(RATE).putInt((int) d.toEpochDay());
+        b.putDouble(gasStanding).putDouble(gasUnit).putDouble(elecStanding).putDouble(elecUnit);
+        b.putInt(crc(b, start));
+        return ++added;
+    }
+
+    // The pending buffer, with room for n more bytes
+    private ByteBuffer room(int n)
+    {
+        if (pending.remaining() < n)
+        {
+            ByteBuffer bigger = ByteBuffer.allocate(pending.capacity() * 2);
+            pending.flip();
+            bigger.put(pending);
+            pending = bigger;
+        }
+        return pending;
+    }
+
+    // CRC32 of a buffer's bytes from 'start' up to its position
+    private static int crc(ByteBuffer b, int start)
+    {
+        CRC32 crc = new CRC32();
+        crc.update(b.array(), b.arrayOffset() + start, b.position() - start);
+        return (int) crc.getValue();
+    }
+
+    /**********************************************************************
+     * Make everything added so far durable
+     *
+     * @throws IOException if it can't be written
+     */
+
+    public void commit() throws IOException
+    {
+        long seq;
+        synchronized (this)
+        {
+            seq = added;
+        }
+        commit(seq);
+    }
+
+    /**********************************************************************
+     * Make the records up to a sequence number durable - returning at once
+     * if they already are; waiting if another thread is writing a batch
+     * that includes them; otherwise writing everything added so far, and
+     * forcing it to disk, in one go.
+     *
+     * @param seq, as returned by addReading() or addRate()
+     * @throws IOException if it can't be written - after which the journal
+     *         can't be added to
+     */
+
+    public void commit(long seq) throws IOException
+    {
+        ByteBuffer batch;
+        long upTo;
+        synchronized (this)
+        {
+            while (committing && (durable < seq) && (failed == null))
+            {
+                try
+                {
+                    wait();
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("interrupted waiting for commit");
+                }
+            }
+            if (failed != null)
+            {
+                throw new IOException("journal unusable after earlier error", failed);
+            }
+            if (durable >= seq)
+            {
+                return;
+            }
+            committing = true;
+            batch = pending;
+            pending = writing;
+            pending.clear();
+            writing = batch;
+            upTo = added;
+        }
+
+        IOException error = null;
+        try
+        {
+            batch.flip();
+            while (batch.hasRemaining())
+            {
+                channel.write(batch);
+            }
+            channel.force(false);
+        }
+        catch (IOException e)
+        {
+            error = e;
+        }
+        synchronized (this)
+        {
+            committing = false;
+            if (error == null)
+            {
+                durable = upTo;
+            }
+            else
+            {
+                failed = error;
+            }
+            notifyAll();
+        }
+        if (error != null)
+        {
+            throw error;
+        }
+    }
+
+    /**********************************************************************
+     * Commit anything outstanding, close the journal, and let other
+     * processes open it
+     *
+     * @throws IOException if it can't be written
+     */
+
+    @Override
+    public void close() throws IOException
+    {
+        try
+        {
+            if (failed == null)
+            {
+                commit();
+            }
+        }
+        finally
+        {
+            try
+            {
+                channel.close();
+            }
+            finally
+            {
+                lock.release();
+                lockChannel.close();
+            }
+        }
+    }
+
+    //----------------------------------------------------------------------
+    // Reading
+
+    /**********************************************************************
+     * Read what a journal holds - its snapshot, then the journal records
+     * after it, up to the first incomplete or damaged record. A journal
+     * that doesn't exist holds nothing. If the journal is compacted while
+     * being read, it is read again.
+     *
+     * @param file, the journal
+     * @return its contents
+     * @throws IOException if it can't be read, isn't a journal, the
+     *         snapshot is damaged, or the journal doesn't follow on from
+     *         the snapshot
+     */
+
+    public static Contents read(File file) throws IOException
+    {
+        for (int tries = 1; ; tries++)
+        {
+            Contents c = new Contents();
+            readSnapshot(snapshotFile(file), c);
+            if (readRecords(file, c))
+            {
+                return c;
+            }
+            if (tries == READTRIES)
+            {
+                throw new IOException(file.getName() + " doesn't follow on from its snapshot");
+            }
+        }
+    }
+
+    // Add a journal's records to the snapshot's contents; false if the
+    // journal is newer than the one after the snapshot - compacted since
+    // the snapshot was read
+    private static boolean readRecords(File file, Contents c) throws IOException
+    {
+        if (! file.isFile())
+        {
+            return true;
+        }
+
+        ByteBuffer buf;
+        try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+        {
+            long size = ch.size();
+            if (size > Integer.MAX_VALUE)
+            {
+                throw new IOException(file.getName() + " too big - compact it");
+            }
+            buf = ByteBuffer.allocate((int) size);
+            while (buf.hasRemaining() && (ch.read(buf) >= 0))
+            {
+            }
+            buf.flip();
+        }
+        if ((buf.remaining() < HEADERSIZE) || ! hasMagic(buf, MAGIC) || (buf.getInt() != VERSION))
+        {
+            throw new IOException(file.getName() + " is not a readings journal");
+        }
+        long generation = buf.getLong();
+        if (generation <= c.generation)
+        {
+            // Already in the snapshot - compaction stopped before the new
+            // journal was started, or hasn't started it yet
+            c.validLength = buf.limit();
+            return true;
+        }
+        if (generation != c.generation + 1)
+        {
+            return false;
+        }
+        c.generation = generation;
+
+        while (true)
+        {
+            int start = buf.position();
+            c.validLength = start;
+            if (! buf.hasRemaining())
+            {
+                break;
+            }
+            byte type = buf.get(start);
+            int size = (type == READING) ? READINGSIZE : (type == RATE) ? RATESIZE : 0;
+            if ((size == 0) || (buf.remaining() < size))
+            {
+                break;
+            }
+            CRC32 crc = new CRC32();
+            crc.update(buf.array(), start, size - 4);
+            if ((int) crc.getValue() != buf.getInt(start + size - 4))
+            {
+                break;
+            }
+            buf.get();
+            int day = buf.getInt();
+            if (type == READING)
+            {
+                c.addReading(day, buf.getDouble(), buf.getDouble());
+            }
+            else
+            {
+                c.addRate(day, new double[] { buf.getDouble(), buf.getDouble(),
+                                              buf.getDouble(), buf.getDouble() });
+            }
+            buf.getInt();
+        }
+        if (c.validLength < buf.limit())
+        {
+            System.out.println("WARNING: ignoring incomplete or damaged records at end of " + file.getName());
+        }
+        return true;
+    }
+
+    // Add a snapshot's contents, if there is one
+    private static void readSnapshot(File f, Contents c) throws IOException
+    {
+        if (! f.isFile())
+        {
+            return;
+        }
+        byte[] bytes = Files.readAllBytes(f.toPath());
+        ByteBuffer buf = ByteBuffer.wrap(bytes);
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, Math.max(bytes.length - 4, 0));
+        if ((bytes.length < SNAPHEADERSIZE + 4) || ! hasMagic(buf, SNAPMAGIC) || (buf.getInt() != VERSION) ||
+            ((int) crc.getValue() != buf.getInt(bytes.length - 4)))
+        {
+            throw new IOException(f.getName() + " is damaged");
+        }
+        c.generation = buf.getLong();
+        int n = buf.getInt(), r = buf.getInt();
+        int[] days = new int[n];
+        double[] elec = new double[n], gas = new double[n];
+        buf.asIntBuffer().get(days);
+        buf.position(buf.position() + 4 * n);
+        buf.asDoubleBuffer().get(elec);
+        buf.position(buf.position() + 8 * n);
+        buf.asDoubleBuffer().get(gas);
+        buf.position(buf.position() + 8 * n);
+        c.days = days;
+        c.elec = elec;
+        c.gas = gas;
+        c.count = n;
+        for (int i = 0; i < r; i++)
+        {
+            c.addRate(buf.getInt(), new double[] { buf.getDouble(), buf.getDouble(),
+                                                   buf.getDouble(), buf.getDouble() });
+        }
+    }
+
+    // Generation of the last journal in a snapshot; 0 if there isn't one
+    private static long snapshotGeneration(File f) throws IOException
+    {
+        if (! f.isFile())
+        {
+            return 0;
+        }
+        Contents c = new Contents();
+        readSnapshot(f, c);
+        return c.generation;
+    }
+
+    // Generation of a journal, from its header
+    private static long journalGeneration(File f) throws IOException
+    {
+        ByteBuffer buf = ByteBuffer.allocate(HEADERSIZE);
+        try (FileChannel ch = FileChannel.open(f.toPath(), StandardOpenOption.READ))
+        {
+            while (buf.hasRemaining() && (ch.read(buf) >= 0))
+            {
+            }
+        }
+        buf.flip();
+        if ((buf.remaining() < HEADERSIZE) || ! hasMagic(buf, MAGIC) || (buf.getInt() != VERSION))
+        {
+            throw new IOException(f.getName() + " is not a readings journal");
+        }
+        return buf.getLong();
+    }
+
+    private static boolean hasMagic(ByteBuffer buf, byte[] magic)
+    {
+        byte[] b = new byte[magic.length];
+        buf.get(b);
+        return Arrays.equals(b, magic);
+    }
+
+    //----------------------------------------------------------------------
+    // Compaction
+
+    /**********************************************************************
+     * Fold the journal into its snapshot - the latest reading and rates
+     * for each date - and start the journal afresh. Anything added but not
+     * committed is committed first.
+     *
+     * @throws IOException if it can't be done; the journal and snapshot
+     *         are left usable
+     */
+
+    public synchronized void compact() throws IOException
+    {
+        commit();
+        // Another thread may still be writing a later batch
+        while (committing)
+        {
+            try
+            {
+                wait();
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted waiting for commit");
+            }
+        }
+        if (failed != null)
+        {
+            throw new IOException("journal unusable after earlier error", failed);
+        }
+        Contents c = read(file);
+
+        // Latest reading and rates for each date
+        TreeMap<Integer, double[]> readings = new TreeMap<>();
+        for (int i = 0; i < c.count; i++)
+        {
+            readings.put(c.days[i], new double[] { c.elec[i], c.gas[i] });
+        }
+        TreeMap<Integer, double[]> rates = new TreeMap<>();
+        for (int i = 0; i < c.rateCount; i++)
+        {
+            rates.put(c.rateDays[i], c.rates[i]);
+        }
+
+        int n = readings.size(), r = rates.size();
+        ByteBuffer buf = ByteBuffer.allocate(SNAPHEADERSIZE + n * (4 + 8 + 8) + r * (4 + 4 * 8) + 4);
+        buf.put(SNAPMAGIC).putInt(VERSION).putLong(generation).putInt(n).putInt(r);
+        for (int day : readings.keySet())
+        {
+            buf.putInt(day);
+        }
+        for (double[] v : readings.values())
+        {
+            buf.putDouble(v[0]);
+        }
+        for (double[] v : readings.values())
+        {
+            buf.putDouble(v[1]);
+        }
+        for (Map.Entry<Integer, double[]> e : rates.entrySet())
+        {
+            buf.putInt(e.getKey());
+            for (double v : e.getValue())
+            {
+                buf.putDouble(v);
+            }
+        }
+        CRC32 crc = new CRC32();
+        crc.update(buf.array(), 0, buf.position());
+        buf.putInt((int) crc.getValue());
+        buf.flip();
+        replace(snapshot, buf);
+
+        // The old journal is now in the snapshot; start the next
+        channel.close();
+        start(generation + 1);
+        generation++;
+        channel = open(file);
+    }
+
+    // Start the journal afresh, empty, with the given generation
+    private void start(long gen) throws IOException
+    {
+        ByteBuffer buf = ByteBuffer.allocate(HEADERSIZE);
+        buf.put(MAGIC).putInt(VERSION).putLong(gen);
+        buf.flip();
+        replace(file, buf);
+    }
+
+    // Write a file in full under a temporary name, force it to disk and
+    // rename it into place, so a reader sees the old file or the new one
+    private static void replace(File f, ByteBuffer contents) throws IOException
+    {
+        Path tmp = Paths.get(f.getPath() + ".tmp");
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                                               StandardOpenOption.TRUNCATE_EXISTING,
+                                               StandardOpenOption.WRITE))
+        {
+            while (contents.hasRemaining())
+            {
+                ch.write(contents);
+            }
+            ch.force(true);
+        }
+        try
+        {
+            Files.move(tmp, f.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                       StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (AtomicMoveNotSupportedException e)
+        {
+            Files.move(tmp, f.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
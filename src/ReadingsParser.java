@@ -0,0 +1,570 @@
+/**************************************************************************
+ * Class ReadingsParser.java to read the "dd/MM/yyyy value value ..." text
+ * files used for meter readings and rates. The file is memory mapped and
+ * the bytes scanned directly - dates are decoded straight to epoch day
+ * numbers and decimals straight to doubles, with no String per line. Large
+ * files are split at newline boundaries and the pieces parsed in parallel.
+ *
+ * Lines starting '#' are comments, and lines shorter than a date are
+ * skipped, as before. Any other line that doesn't hold a valid date and
+ * the expected number of values is reported, with its line number, in the
+ * errors of the result rather than quietly dropped.
+ *
+ * For data too big to hold, a Stream reads a file a line at a time
+ * through a small buffer instead, parsing each line the same way.
+ *
+ * @author Colin Brough
+ * @version Dev_01
+ */
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.stream.IntStream;
+
+public class ReadingsParser
+{
+    // Files are split into pieces of roughly this size for parallel parsing
+    static final int CHUNKSIZE = 4 << 20;
+    // Length of the "dd/MM/yyyy" date at the start of every line
+    static final int DATELENGTH = 10;
+    // Size of the buffer a Stream reads through
+    static final int STREAMBUFFER = 1 << 16;
+
+    // Powers of ten that are exactly representable as doubles
+    private static final double[] POW10 = {
+        1e0,  1e1,  1e2,  1e3,  1e4,  1e5,  1e6,  1e7,  1e8,  1e9,  1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
+    /**************************************************************************
+     * The parsed contents of a file - one epoch day per line parsed, plus
+     * that line's values held column by column.
+     */
+
+    public static class Result
+    {
+        public int count;			// Number of lines parsed
+        public int[] days;			// Epoch day of each line
+        public double[][] values;		// values[column][line]
+        public ArrayList<String> errors = new ArrayList<>();	// Malformed lines
+
+        Result(int columns, int capacity)
+        {
+            days = new int[Math.max(capacity, 16)];
+            values = new double[columns][days.length];
+        }
+
+        // Make room for at least one more line
+        void grow()
+        {
+            if (count == days.length)
+            {
+                days = Arrays.copyOf(days, count * 2);
+                for (int c = 0; c < values.length; c++)
+                {
+                    values[c] = Arrays.copyOf(values[c], count * 2);
+                }
+            }
+        }
+    }
+
+    /**********************************************************************
+     * Parse a file, each line of which holds a date followed by a fixed
+     * number of values.
+     *
+     * @param f, the file to parse
+     * @param columns, the number of values expected after the date
+     * @return the parsed lines, in file order
+     * @throws IOException if the file cannot be opened or read
+     */
+
+    public static Result parse(File f, int columns) throws IOException
+    {
+        try (FileChannel ch = FileChannel.open(f.toPath(), StandardOpenOption.READ))
+        {
+            long size = ch.size();
+
+            //------------------------------------------------------------------
+            // Work out the chunk boundaries - each chunk after the first starts
+            // just after a newline, so no line is split between chunks.
+
+            ArrayList<Long> bounds = new ArrayList<>();
+            bounds.add(0L);
+            long next = CHUNKSIZE;
+            while (next < size)
+            {
+                long b = nextLineStart(ch, next - 1, size);
+                if (b >= size)
+                {
+                    break;
+                }
+                bounds.add(b);
+                next = b + CHUNKSIZE;
+            }
+            bounds.add(size);
+
+            int nChunks = bounds.size() - 1;
+            Result[] parts = new Result[nChunks];
+            int[] lines = new int[nChunks];
+            // Rough line length, to size each chunk's result - a date and
+            // a few characters per value
+            int lineGuess = Math.max(24, DATELENGTH + 4 * columns);
+            IntStream range = IntStream.range(0, nChunks);
+            if (nChunks > 1)
+            {
+                range = range.parallel();
+            }
+            range.forEach(i ->
+                {
+                    try
+                    {
+                        long start = bounds.get(i);
+                        MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY,
+                                                      start, bounds.get(i+1) - start);
+                        parts[i] = new Result(columns, buf.limit() / lineGuess);
+                        lines[i] = parseChunk(buf, columns, parts[i]);
+                    }
+                    catch (IOException e)
+                    {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            return combine(f, parts, lines, columns);
+        }
+        catch (UncheckedIOException e)
+        {
+            throw e.getCause();
+        }
+    }
+
+    /**************************************************************************
+     * A file read one line at a time, in file order, through a buffer of
+     * STREAMBUFFER bytes - so reading it takes the same small amount of
+     * memory however long the file is. Malformed lines are skipped, and
+     * reported in 'errors' as for parse(); the caller should empty it from
+     * time to time.
+     */
+
+    public static class Stream implements Closeable
+    {
+        public int day;				// Epoch day of the line read
+        public final double[] values;		// Its values
+        public final ArrayList<String> errors = new ArrayList<>();
+
+        private final File file;
+        private final FileChannel ch;
+        private final ByteBuffer buf = ByteBuffer.allocate(STREAMBUFFER);
+        private final Result line;		// Scratch, for one parsed line
+        private final boolean wholeLines;	// Leave a last line with no newline
+        private boolean eof;
+        private int lineNo;
+
+        /**********************************************************************
+         * Constructor - open a file to read
+         *
+         * @param f, the file
+         * @param columns, the number of values expected after the date
+         * @throws IOException if the file cannot be opened
+         */
+
+        public Stream(File f, int columns) throws IOException
+        {
+            this(f, columns, 0);
+        }
+
+        /**********************************************************************
+         * Constructor - open a file to read from part way through, such as
+         * the end of what was read last time; 'start' should be the start
+         * of a line. Line numbers in errors count from there.
+         *
+         * @param f, the file
+         * @param columns, the number of values expected after the date
+         * @param start, byte offset to start reading at
+         * @throws IOException if the file cannot be opened
+         */
+
+        public Stream(File f, int columns, long start) throws IOException
+        {
+            this(f, columns, start, false);
+        }
+
+        /**********************************************************************
+         * Constructor - as above, optionally leaving a last line that has
+         * no newline unread, as it may be only part written; position()
+         * is then the start of that line
+         *
+         * @param f, the file
+         * @param columns, the number of values expected after the date
+         * @param start, byte offset to start reading at
+         * @param wholeLines, true to read only lines ending in a newline
+         * @throws IOException if the file cannot be opened
+         */
+
+        public Stream(File f, int columns, long start, boolean wholeLines) throws IOException
+        {
+            file = f;
+            this.wholeLines = wholeLines;
+            ch = FileChannel.open(f.toPath(), StandardOpenOption.READ);
+            ch.position(start);
+            buf.limit(0);
+            line = new Result(columns, 1);
+            values = new double[columns];
+        }
+
+        /**********************************************************************
+         * Returns the byte offset in the file just after the last line read
+         * - the end of the file, once next() has returned false
+         */
+
+        public long position() throws IOException
+        {
+            return ch.position() - buf.remaining();
+        }
+
+        /**********************************************************************
+         * Read the next good line into 'day' and 'values'
+         *
+         * @return false at the end of the file
+         * @throws IOException if the file can't be read, or a line won't
+         *         fit in the buffer
+         */
+
+        public boolean next() throws IOException
+        {
+            while (true)
+            {
+                int pos = buf.position(), limit = buf.limit();
+                int end = pos;
+                while ((end < limit) && (buf.get(end) != '\n'))
+                {
+                    end++;
+                }
+                if ((end == limit) && ! eof)
+                {
+                    // No whole line left - move what there is to the front,
+                    // and read more in after it
+                    buf.compact();
+                    if (! buf.hasRemaining())
+                    {
+                        throw new IOException(file.getName() + ":" + (lineNo + 1) + ": line too long");
+                    }
+                    eof = (ch.read(buf) < 0);
+                    buf.flip();
+                    continue;
+                }
+                if ((pos == limit) || ((end == limit) && wholeLines))
+                {
+                    return false;
+                }
+
+                lineNo++;
+                buf.position(Math.min(end + 1, limit));
+                if ((end > pos) && (buf.get(end - 1) == '\r'))
+                {
+                    end--;
+                }
+                if ((end - pos < DATELENGTH) || (buf.get(pos) == '#'))
+                {
+                    continue;
+                }
+                line.count = 0;
+                String error = parseLine(buf, pos, end, values.length, line);
+                if (error != null)
+                {
+                    errors.add(file.getName() + ":" + lineNo + ": " + error);
+                    continue;
+                }
+                day = line.days[0];
+                for (int c = 0; c < values.length; c++)
+                {
+                    values[c] = line.values[c][0];
+                }
+                return true;
+            }
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            ch.close();
+        }
+    }
+
+    /**********************************************************************
+     * Find the position just after the first newline at or after 'from'
+     */
+
+    private static long nextLineStart(FileChannel ch, long from, long size) throws IOException
+    {
+        ByteBuffer buf = ByteBuffer.allocate(4096);
+        long pos = from;
+        while (pos < size)
+        {
+            buf.clear();
+            int n = ch.read(buf, pos);
+            if (n <= 0)
+            {
+                break;
+            }
+            for (int i = 0; i < n; i++)
+            {
+                if (buf.get(i) == '\n')
+                {
+                    return pos + i + 1;
+                }
+            }
+            pos += n;
+        }
+        return size;
+    }
+
+    /**********************************************************************
+     * Join up the per-chunk results into one, turning each chunk's line
+     * numbers in error messages into line numbers within the whole file.
+     */
+
+    private static Result combine(File f, Result[] parts, int[] lines, int columns)
+    {
+        if (parts.length == 1)
+        {
+            prefixErrors(f, parts[0], 0);
+            return parts[0];
+        }
+        int total = 0;
+        for (Result r : parts)
+        {
+            total += r.count;
+        }
+        Result all = new Result(columns, total);
+        int lineOffset = 0;
+        for (int i = 0; i < parts.length; i++)
+        {
+            Result r = parts[i];
+            System.arraycopy(r.days, 0, all.days, all.count, r.count);
+            for (int c = 0; c < columns; c++)
+            {
+                System.arraycopy(r.values[c], 0, all.values[c], all.count, r.count);
+            }
+            all.count += r.count;
+            prefixErrors(f, r, lineOffset);
+            all.errors.addAll(r.errors);
+            lineOffset += lines[i];
+        }
+        return all;
+    }
+
+    // Error messages from a chunk start with its line number; make them
+    // "file:line: message", with the line number counted from file start
+    private static void prefixErrors(File f, Result r, int lineOffset)
+    {
+        for (int i = 0; i < r.errors.size(); i++)
+        {
+            String e = r.errors.get(i);
+            int colon = e.indexOf(':');
+            int line = Integer.parseInt(e.substring(0, colon)) + lineOffset;
+            r.errors.set(i, f.getName() + ":" + line + e.substring(colon));
+        }
+    }
+
+    /**********************************************************************
+     * Parse all the lines in a buffer into the result passed in.
+     *
+     * @return the number of lines in the buffer
+     */
+
+    private static int parseChunk(ByteBuffer buf, int columns, Result r)
+    {
+        int limit = buf.limit();
+        int lineNo = 0;
+        int pos = 0;
+        while (pos < limit)
+        {
+            int end = pos;
+            while ((end < limit) && (buf.get(end) != '\n'))
+            {
+                end++;
+            }
+            lineNo++;
+            int next = end + 1;
+            if ((end > pos) && (buf.get(end - 1) == '\r'))
+            {
+                end--;
+            }
+            if ((end - pos >= DATELENGTH) && (buf.get(pos) != '#'))
+            {
+                String error = parseLine(buf, pos, end, columns, r);
+                if (error != null)
+                {
+                    r.errors.add(lineNo + ": " + error);
+                }
+            }
+            pos = next;
+        }
+        return lineNo;
+    }
+
+    /**********************************************************************
+     * Parse one line, bytes [pos, end) of the buffer, appending it to the
+     * result if it is good.
+     *
+     * @return null if the line was parsed, otherwise what was wrong with it
+     */
+
+    private static String parseLine(ByteBuffer buf, int pos, int end, int columns, Result r)
+    {
+        //------------------------------------------------------------------
+        // The date, which must be exactly dd/MM/yyyy
+
+        int day = 0, month = 0, year = 0;
+        for (int i = 0; i < DATELENGTH; i++)
+        {
+            int b = buf.get(pos + i);
+            if ((i == 2) || (i == 5))
+            {
+                if (b != '/')
+                {
+                    return "date not in dd/MM/yyyy format";
+                }
+                continue;
+            }
+            if ((b < '0') || (b > '9'))
+            {
+                return "date not in dd/MM/yyyy format";
+            }
+            if (i < 2)
+            {
+                day = day * 10 + (b - '0');
+            }
+            else if (i < 5)
+            {
+                month = month * 10 + (b - '0');
+            }
+            else
+            {
+                year = year * 10 + (b - '0');
+            }
+        }
+        if ((day < 1) || (day > 31) || (month < 1) || (month > 12) || (year < 1))
+        {
+            return "invalid date";
+        }
+        // As DateTimeFormatter's default (smart) resolution, 29-31 February
+        // and the 31st of 30 day months move back to the last day of the month
+        day = Math.min(day, EpochDays.monthLength(year, month));
+
+        //------------------------------------------------------------------
+        // The values - stored straight into the result, which only counts the
+        // line once they have all been read successfully
+
+        r.grow();
+        int p = pos + DATELENGTH;
+        for (int c = 0; c < columns; c++)
+        {
+            while ((p < end) && isSpace(buf.get(p)))
+            {
+                p++;
+            }
+            int start = p;
+            while ((p < end) && ! isSpace(buf.get(p)))
+            {
+                p++;
+            }
+            if (p == start)
+            {
+                return "expected " + columns + " values, found " + c;
+            }
+            double v = parseDouble(buf, start, p);
+            if (Double.isNaN(v))
+            {
+                return "value " + (c + 1) + " is not a number";
+            }
+            r.values[c][r.count] = v;
+        }
+        r.days[r.count++] = EpochDays.of(year, month, day);
+        return null;
+    }
+
+    private static boolean isSpace(int b)
+    {
+        return (b == ' ') || (b == '\t') || (b == '\r') || (b == '\f');
+    }
+
+    /**********************************************************************
+     * Decode a plain decimal ("-12.345") in bytes [start, end) of the
+     * buffer. Up to 15 significant digits this is done exactly, as one
+     * division of two exactly representable doubles, and so gives the
+     * same correctly rounded result as Double.parseDouble(). Anything else
+     * (more digits, exponents) is handed over to Double.parseDouble().
+     *
+     * @return the value, or NaN if the bytes aren't a number
+     */
+
+    static double parseDouble(ByteBuffer buf, int start, int end)
+    {
+        int p = start;
+        boolean negative = false;
+        if ((buf.get(p) == '-') || (buf.get(p) == '+'))
+        {
+            negative = (buf.get(p) == '-');
+            p++;
+        }
+        long mantissa = 0;
+        int digits = 0, fraction = 0;
+        boolean point = false;
+        for (; p < end; p++)
+        {
+            int b = buf.get(p);
+            if ((b >= '0') && (b <= '9'))
+            {
+                if (digits < 18)
+                {
+                    mantissa = mantissa * 10 + (b - '0');
+                }
+                digits++;
+                if (point)
+                {
+                    fraction++;
+                }
+            }
+            else if ((b == '.') && ! point)
+            {
+                point = true;
+            }
+            else
+            {
+                return parseSlowly(buf, start, end);
+            }
+        }
+        if (digits == 0)
+        {
+            return Double.NaN;
+        }
+        if ((digits > 15) || (fraction >= POW10.length))
+        {
+            return parseSlowly(buf, start, end);
+        }
+        double v = mantissa / POW10[fraction];
+        return negative ? -v : v;
+    }
+
+    // Fallback for anything the fast path doesn't handle
+    private static double parseSlowly(ByteBuffer buf, int start, int end)
+    {
+        byte[] b = new byte[end - start];
+        for (int i = 0; i < b.length; i++)
+        {
+            b[i] = buf.get(start + i);
+        }
+        try
+        {
+            return Double.parseDouble(new String(b, StandardCharsets.US_ASCII));
+        }
+        catch (NumberFormatException e)
+        {
+            return Double.NaN;
+        }
+    }
+}
@@ -0,0 +1,220 @@
+/**************************************************************************
+ * Class ReportCache.java to avoid rewriting report files that would come
+ * out the same as they already are - so Dropbox, and the gnuplot jobs
+ * that read them, only see the files that have really changed.
+ *
+ * Each report is written from some part of the data - a Year<yyyy>.dat
+ * file from that year's days, the summaries from all of them - and a hash
+ * of that part is worked out before writing. The manifest records the
+ * hash each file was last written from, and the file's length; if both
+ * still match, the file is left alone. The manifest is a small text file
+ * kept alongside the reports, so it holds good from one run to the next.
+ *
+ * Reports written a row per day - Daily.dat and the year files - also
+ * record how many rows they hold. When days are added on the end, the rows
+ * already there come out the same, so only the new rows need adding to
+ * the file - see rowsUnchanged().
+ *
+ * What is cached is the report files, not the aggregates behind them. The
+ * week, month and year totals are summed afresh whenever the data has
+ * changed: finding out which buckets' days have changed means hashing
+ * them, which costs as much as adding them up. So per bucket, only the
+ * Year<yyyy>.dat files - one per year bucket - are skipped; Weekly.dat
+ * and Monthly.dat hold every bucket in one file, and are rewritten whole
+ * if any day has changed.
+ *
+ * Anything that changes how a report is laid out should change VERSION,
+ * so every file is rewritten once.
+ *
+ * @author Colin Brough
+ * @version Dev_01
+ */
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.IntToLongFunction;
+
+public class ReportCache
+{
+    // Version of the report formats, part of every hash
+    static final long VERSION = 1;
+
+    private final File manifest;
+    // Report path to { hash, length, rows } as last written
+    private final ConcurrentHashMap<String, long[]> entries = new ConcurrentHashMap<>();
+
+    /**********************************************************************
+     * Constructor - read the manifest, if there is one. A manifest that
+     * can't be read is treated as empty, so everything is written.
+     *
+     * @param manifest, the manifest file
+     */
+
+    public ReportCache(File manifest)
+    {
+        this.manifest = manifest;
+        if (! manifest.isFile())
+        {
+            return;
+        }
+        try (BufferedReader in = new BufferedReader(new FileReader(manifest)))
+        {
+            String line;
+            while ((line = in.readLine()) != null)
+            {
+                // hash length rows path - the path last, as it may hold spaces
+                String[] fields = line.split(" ", 4);
+                if (fields.length == 4)
+                {
+                    entries.put(fields[3], new long[] { Long.parseUnsignedLong(fields[0], 16),
+                                                        Long.parseLong(fields[1]),
+                                                        Long.parseLong(fields[2]) });
+                }
+            }
+        }
+        catch (IOException | NumberFormatException e)
+        {
+            System.out.println("WARNING: ignoring unreadable " + manifest.getName() + ": " + e.getMessage());
+            entries.clear();
+        }
+    }
+
+    /**********************************************************************
+     * Returns true if a report is there, as it was last written from data
+     * with the same hash
+     *
+     * @param report, the report file
+     * @param hash, of the data it is to be written from
+     */
+
+    public boolean unchanged(File report, long hash)
+    {
+        long[] entry = entries.get(report.getPath());
+        return (entry != null) && (entry[0] == hash) && (report.length() == entry[1]) && report.isFile();
+    }
+
+    /**********************************************************************
+     * Note that a report has been written from data with the given hash
+     *
+     * @param report, the report file
+     * @param hash, of the data it was written from
+     */
+
+    public void record(File report, long hash)
+    {
+        record(report, hash, 0);
+    }
+
+    /**********************************************************************
+     * Note that a report of a row per day has been written from data with
+     * the given hash
+     *
+     * @param report, the report file
+     * @param hash, of the data it was written from
+     * @param rows, the number of rows it holds
+     */
+
+    public void record(File report, long hash, int rows)
+    {
+        entries.put(report.getPath(), new long[] { hash, report.length(), rows });
+    }
+
+    /**********************************************************************
+     * Returns how many rows at the start of a report can be kept as they
+     * are - all the rows it was last written with, if the file is still as
+     * it was written and those rows would come out the same now; otherwise
+     * none, and the report must be written afresh
+     *
+     * @param report, the report file
+     * @param limit, the number of rows it is now to have
+     * @param prefix, gives the hash of the data the first n rows are
+     *                written from, as passed to record()
+     * @return the rows to keep
+     */
+
+    public int rowsUnchanged(File report, int limit, IntToLongFunction prefix)
+    {
+        long[] entry = entries.get(report.getPath());
+        if ((entry == null) || (entry[2] <= 0) || (entry[2] > limit) ||
+            (report.length() != entry[1]) || ! report.isFile())
+        {
+            return 0;
+        }
+        int rows = (int) entry[2];
+        return (prefix.applyAsLong(rows) == entry[0]) ? rows : 0;
+    }
+
+    /**********************************************************************
+     * Write the manifest out - to a new file that then replaces the old,
+     * so a run that is stopped part way leaves the old one intact
+     *
+     * @throws IOException if it can't be written
+     */
+
+    public void save() throws IOException
+    {
+        File temp = new File(manifest.getPath() + ".new");
+        try (PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(temp))))
+        {
+            for (Map.Entry<String, long[]> e : new TreeMap<>(entries).entrySet())
+            {
+                long[] v = e.getValue();
+                out.println(Long.toHexString(v[0]) + " " + v[1] + " " + v[2] + " " + e.getKey());
+            }
+            if (out.checkError())
+            {
+                throw new IOException("error writing " + temp);
+            }
+        }
+        Files.move(temp.toPath(), manifest.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    //----------------------------------------------------------------------
+    // Hashing
+
+    /**********************************************************************
+     * Mix a value into a hash
+     *
+     * @param h, the hash so far
+     * @param v, the value
+     * @return the new hash
+     */
+
+    static long mix(long h, long v)
+    {
+        h = (h ^ v) * 0x9E3779B97F4A7C15L;
+        return h ^ (h >>> 29);
+    }
+
+    static long mix(long h, String s)
+    {
+        return mix(mix(h, s.hashCode()), s.length());
+    }
+
+    /**********************************************************************
+     * Hash the reported fields of a run of days - the date, usage and
+     * costs - starting from VERSION
+     *
+     * @param c, the days
+     * @param from, index of the first day
+     * @param to, index after the last day
+     * @return the hash
+     */
+
+    static long hash(UtilityColumns c, int from, int to)
+    {
+        long h = mix(VERSION, to - from);
+        for (int i = from; i < to; i++)
+        {
+            h = mix(h, c.day[i]);
+            h = mix(h, Double.doubleToLongBits(c.gasUsed[i]));
+            h = mix(h, Double.doubleToLongBits(c.elecUsed[i]));
+            h = mix(h, Double.doubleToLongBits(c.gascost[i]));
+            h = mix(h, Double.doubleToLongBits(c.eleccost[i]));
+            h = mix(h, Double.doubleToLongBits(c.totalcost[i]));
+        }
+        return h;
+    }
+}
@@ -0,0 +1,139 @@
+/**************************************************************************
+ * Class ReportScheduler.java to write a number of independent report
+ * files at the same time, on a fixed pool of threads - one per core by
+ * default - so the time taken to write them all goes with the number of
+ * cores rather than the number of reports.
+ *
+ * Reports only read the data they are given, so any number can run over
+ * the same UtilityData at once - provided nothing changes it until
+ * awaitAll() returns, and its aggregates() have been worked out before
+ * the reports are submitted (they are filled in lazily otherwise).
+ *
+ * A report that fails doesn't stop the others; each failure is reported
+ * against the report's name when awaitAll() is called.
+ *
+ * With no threads, each report is written there and then by submit(), on
+ * the caller's thread - for when the caller is itself one of many running
+ * in parallel - with failures reported the same way.
+ *
+ * @author Colin Brough
+ * @version Dev_01
+ */
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.IntSupplier;
+
+public class ReportScheduler implements AutoCloseable
+{
+    private final ExecutorService pool;
+    private final ArrayList<String> names = new ArrayList<String>();
+    private final ArrayList<Future<?>> pending = new ArrayList<Future<?>>();
+
+    /**********************************************************************
+     * Constructor - one thread per available core
+     */
+
+    public ReportScheduler()
+    {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**********************************************************************
+     * Constructor
+     *
+     * @param threads, the most reports to write at once; 0 to write each
+     *        one as it is submitted
+     */
+
+    public ReportScheduler(int threads)
+    {
+        if (threads <= 0)
+        {
+            pool = null;
+            return;
+        }
+        pool = Executors.newFixedThreadPool(threads, r -> {
+                Thread t = new Thread(r, "report");
+                t.setDaemon(true);
+                return t;
+            });
+    }
+
+    /**********************************************************************
+     * Start a report writing in the background
+     *
+     * @param name, to identify the report if it fails
+     * @param report, writes the report, returning the number of rows it
+     *                wrote - recorded against it in Stages
+     */
+
+    public void submit(String name, IntSupplier report)
+    {
+        names.add(name);
+        Runnable timed = () ->
+        {
+            Stages.Stage stage = Stages.start("report:" + name);
+            int rows = report.getAsInt();
+            stage.end(rows);
+        };
+        if (pool == null)
+        {
+            FutureTask<Object> task = new FutureTask<Object>(timed, null);
+            task.run();
+            pending.add(task);
+        }
+        else
+        {
+            pending.add(pool.submit(timed));
+        }
+    }
+
+    /**********************************************************************
+     * Wait for all the reports submitted so far to finish, printing a
+     * message for each one that failed.
+     *
+     * @return the number of reports that failed
+     */
+
+    public int awaitAll()
+    {
+        int failed = 0;
+        for (int i = 0; i < pending.size(); i++)
+        {
+            try
+            {
+                pending.get(i).get();
+            }
+            catch (ExecutionException e)
+            {
+                Throwable cause = e.getCause();
+                System.out.println("ERROR: report '" + names.get(i) + "' failed: " + cause);
+                failed++;
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                System.out.println("ERROR: interrupted waiting for report '" + names.get(i) + "'");
+                failed++;
+            }
+        }
+        names.clear();
+        pending.clear();
+        return failed;
+    }
+
+    /**********************************************************************
+     * Wait for any outstanding reports, then stop the threads
+     */
+
+    @Override
+    public void close()
+    {
+        awaitAll();
+        if (pool != null)
+        {
+            pool.shutdown();
+        }
+    }
+}
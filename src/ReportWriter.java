@@ -0,0 +1,309 @@
+/**************************************************************************
+ * Class ReportWriter.java to write report files quickly. It is a
+ * PrintStream, so headers and the like can still be written with printf(),
+ * but the per-day lines are built field by field - integers, dates and
+ * fixed point numbers formatted straight into a reusable byte buffer -
+ * without the format string parsing and garbage printf() produces for
+ * every line.
+ *
+ * The fields come out exactly as printf() would format them: integer()
+ * as %Nd, zeroPadded() as %0Nd, date() as LocalDate.toString() (%s) and
+ * fixed() as %N.Df - right aligned in the width given, rounding half up
+ * from the shortest decimal form of the number, as Formatter does. Numbers
+ * the fast path can't be sure of (too big, not finite, or within a hair
+ * of a rounding tie) go through String.format() instead, as does
+ * everything if the locale doesn't use plain '0'-'9' and '.'. The locale
+ * is the default one, as printf() uses, unless another is given - data
+ * files that are read back in want Locale.ROOT.
+ *
+ * A line is built up, then written with endLine(); don't printf() in the
+ * middle of a line.
+ *
+ * @author Colin Brough
+ * @version Dev_01
+ */
+
+import java.io.*;
+import java.text.DecimalFormatSymbols;
+import java.time.LocalDate;
+import java.util.*;
+
+public class ReportWriter extends PrintStream
+{
+    // Powers of ten that can be used to scale an exact fixed() result
+    private static final long[] POW10 = { 1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L,
+                                          10000000L, 100000000L, 1000000000L };
+    // Largest scaled value fixed() formats itself, so it stays exact in a long
+    private static final double FASTLIMIT = 1e15;
+
+    private final Locale locale;	// Locale the fields are formatted for
+    private final boolean plain;	// Locale formats numbers plainly
+    private byte[] line = new byte[256];	// The line being built
+    private int length;			// Bytes in 'line'
+    private final byte[] digits = new byte[20];	// Scratch, for a long's digits
+
+    /**********************************************************************
+     * Constructor - open a report file, writing it through a buffer of
+     * UtilityData.REPORTBUFFER bytes
+     *
+     * @param path, of the file
+     * @throws FileNotFoundException if the file can't be opened
+     */
+
+    public ReportWriter(String path) throws FileNotFoundException
+    {
+        this(path, Locale.getDefault(Locale.Category.FORMAT));
+    }
+
+    /**********************************************************************
+     * Constructor - open a file, formatting fields for the given locale
+     *
+     * @param path, of the file
+     * @param locale, for formatting the fields
+     * @throws FileNotFoundException if the file can't be opened
+     */
+
+    public ReportWriter(String path, Locale locale) throws FileNotFoundException
+    {
+        this(path, false, locale);
+    }
+
+    /**********************************************************************
+     * Constructor - open a report file, optionally adding to the end of it
+     * rather than starting it afresh
+     *
+     * @param path, of the file
+     * @param append, true to add to what's already there
+     * @throws FileNotFoundException if the file can't be opened
+     */
+
+    public ReportWriter(String path, boolean append) throws FileNotFoundException
+    {
+        this(path, append, Locale.getDefault(Locale.Category.FORMAT));
+    }
+
+    private ReportWriter(String path, boolean append, Locale locale) throws FileNotFoundException
+    {
+        super(new BufferedOutputStream(new FileOutputStream(path, append), UtilityData.REPORTBUFFER));
+        DecimalFormatSymbols dfs = DecimalFormatSymbols.getInstance(locale);
+        this.locale = locale;
+        plain = (dfs.getZeroDigit() == '0') && (dfs.getDecimalSeparator() == '.');
+    }
+
+    /**********************************************************************
+     * Add a single ASCII character to the line
+     *
+     * @param c, the character
+     * @return this writer
+     */
+
+    public ReportWriter put(char c)
+    {
+        room(1);
+        line[length++] = (byte) c;
+        return this;
+    }
+
+    /**********************************************************************
+     * Add an integer to the line, as %Nd would
+     *
+     * @param v, the value
+     * @param width, minimum width, padded on the left with spaces
+     * @return this writer
+     */
+
+    public ReportWriter integer(long v, int width)
+    {
+        if (! plain || (v == Long.MIN_VALUE))
+        {
+            return text(String.format(locale, "%" + width + "d", v));
+        }
+        int n = toDigits(Math.abs(v));
+        int sign = (v < 0) ? 1 : 0;
+        pad(' ', width - n - sign);
+        if (sign != 0)
+        {
+            room(1);
+            line[length++] = '-';
+        }
+        appendDigits(n);
+        return this;
+    }
+
+    /**********************************************************************
+     * Add an integer to the line, as %0Nd would
+     *
+     * @param v, the value
+     * @param width, minimum width, padded on the left with zeroes
+     * @return this writer
+     */
+
+    public ReportWriter zeroPadded(long v, int width)
+    {
+        if (! plain || (v < 0))
+        {
+            return text(String.format(locale, "%0" + width + "d", v));
+        }
+        int n = toDigits(v);
+        pad('0', width - n);
+        appendDigits(n);
+        return this;
+    }
+
+    /**********************************************************************
+     * Add a date to the line, as yyyy-mm-dd - the same as LocalDate's
+     * toString()
+     *
+     * @param day, the date as an epoch day number
+     * @return this writer
+     */
+
+    public ReportWriter date(int day)
+    {
+        int ymd = EpochDays.civil(day);
+        int y = EpochDays.year(ymd);
+        if ((y < 1) || (y > 9999))
+        {
+            return text(LocalDate.ofEpochDay(day).toString());
+        }
+        room(10);
+        put4(y);
+        line[length++] = '-';
+        put2(EpochDays.month(ymd));
+        line[length++] = '-';
+        put2(EpochDays.dayOfMonth(ymd));
+        return this;
+    }
+
+    /**********************************************************************
+     * Add a number to the line in fixed point, as %N.Df would
+     *
+     * @param v, the value
+     * @param width, minimum width, padded on the left with spaces
+     * @param decimals, number of digits after the point, 0..9
+     * @return this writer
+     */
+
+    public ReportWriter fixed(double v, int width, int decimals)
+    {
+        double scaled = Math.abs(v) * POW10[decimals];
+        double frac = scaled - Math.floor(scaled);
+        //------------------------------------------------------------------
+        // Formatter rounds the shortest decimal that gives v back, which
+        // can be either side of v; so only trust v's own rounding when it's
+        // clear of a tie by more than that, and any error scaling it.
+        if (! plain || ! (scaled < FASTLIMIT) ||
+            (Math.abs(frac - 0.5) <= 16 * Math.ulp(scaled)))
+        {
+            return text(String.format(locale, "%" + width + "." + decimals + "f", v));
+        }
+        long q = (long) Math.floor(scaled + 0.5);
+        long whole = q / POW10[decimals];
+        long part  = q % POW10[decimals];
+
+        int n = toDigits(whole);
+        int sign = ((Double.doubleToRawLongBits(v) < 0) ? 1 : 0);	// -0.00 too, as Formatter
+        pad(' ', width - sign - n - ((decimals > 0) ? decimals + 1 : 0));
+        if (sign != 0)
+        {
+            room(1);
+            line[length++] = '-';
+        }
+        appendDigits(n);
+        if (decimals > 0)
+        {
+            room(decimals + 1);
+            line[length++] = '.';
+            for (int i = length + decimals - 1; i >= length; i--)
+            {
+                line[i] = (byte) ('0' + part % 10);
+                part /= 10;
+            }
+            length += decimals;
+        }
+        return this;
+    }
+
+    /**********************************************************************
+     * Add a string to the line, in the default charset
+     *
+     * @param s, the string
+     * @return this writer
+     */
+
+    public ReportWriter text(String s)
+    {
+        byte[] b = s.getBytes();
+        room(b.length);
+        System.arraycopy(b, 0, line, length, b.length);
+        length += b.length;
+        return this;
+    }
+
+    /**********************************************************************
+     * End the line being built, and write it out
+     */
+
+    public void endLine()
+    {
+        put('\n');
+        write(line, 0, length);
+        length = 0;
+    }
+
+    //----------------------------------------------------------------------
+    // Helpers for building the line
+
+    // Make sure there's room for 'n' more bytes in the line
+    private void room(int n)
+    {
+        if (length + n > line.length)
+        {
+            line = Arrays.copyOf(line, Math.max(line.length * 2, length + n));
+        }
+    }
+
+    // Add 'n' copies of c (if n > 0)
+    private void pad(char c, int n)
+    {
+        room(Math.max(n, 0));
+        for (; n > 0; n--)
+        {
+            line[length++] = (byte) c;
+        }
+    }
+
+    // Put the decimal digits of v (>= 0) at the end of 'digits', returning
+    // how many there are
+    private int toDigits(long v)
+    {
+        int i = digits.length;
+        do
+        {
+            digits[--i] = (byte) ('0' + v % 10);
+            v /= 10;
+        } while (v != 0);
+        return digits.length - i;
+    }
+
+    // Add the last 'n' bytes of 'digits' to the line
+    private void appendDigits(int n)
+    {
+        room(n);
+        System.arraycopy(digits, digits.length - n, line, length, n);
+        length += n;
+    }
+
+    // Add a value as exactly two or four digits; there must be room
+    private void put2(int v)
+    {
+        line[length++] = (byte) ('0' + v / 10);
+        line[length++] = (byte) ('0' + v % 10);
+    }
+
+    private void put4(int v)
+    {
+        put2(v / 100);
+        put2(v % 100);
+    }
+}
@@ -0,0 +1,254 @@
+/**************************************************************************
+ * Class RunPlan.java to say what a run reads, what it writes and where -
+ * from the command line, a config file, or both. Left alone it is our own
+ * household as always: the readings in DIRECTORY and Dropbox, the rates
+ * in Rates.dat, and every report written to GENDIRECTORY.
+ *
+ * The options, which can come anywhere on the command line, are:
+ *
+ *   --config <file>     read options from a properties file - the keys are
+ *                       the option names without the "--"
+ *   --historic <file>   the older readings
+ *   --recent <file>     the newer readings, which win where they overlap
+ *   --rates <file>      the rates
+ *   --journal <file>    readings and rates added by tools - see
+ *                       ReadingsJournal; used if it is there
+ *   --output <dir>      where the data files go
+ *   --plots <dir>       where the gnuplot files go
+ *   --reports <names>   the reports wanted, separated by commas or spaces -
+ *                       see REPORTS; "all" for all of them
+ *   --stats             write Stages.dat, giving where the time went
+ *
+ * Options are applied in the order given, so those after --config
+ * override the file. Anything else - the mode (see MODES), and its own
+ * arguments - is left in args(); any other word starting "--" is taken
+ * to be a mistyped option, and rejected.
+ *
+ * Smoothing is only worked out if a Smooth report is wanted. The costs
+ * always are, as every report shows them.
+ *
+ * @author Colin Brough
+ * @version Dev_01
+ */
+
+import java.io.*;
+import java.util.*;
+
+public class RunPlan
+{
+    // The reports there are, by the name they are written under
+    static final String[] REPORTS = { "Daily.dat", "Weekly.dat", "DaysOfWeek.dat", "Monthly.dat", "Year",
+                                      "SmoothDaily.dat", "SmoothWeekly.dat", "SmoothMonthly.dat",
+                                      "SmoothYear" };
+    // The modes MeterProcessMain runs in, besides the usual run
+    static final String[] MODES = { "--fleet", "--stream", "--watch", "--add", "--add-rate", "--compact" };
+
+    private File historic = new File(UtilityData.DIRECTORY + "MeterReadings.dat");
+    private File recent   = new File("/home/cmb/Dropbox/Misc/elecgas.txt");
+    private File rates    = new File(UtilityData.RatesFilename);
+    private File journal  = new File(UtilityData.DIRECTORY + "Readings.journal");
+    private String outputDirectory = UtilityData.GENDIRECTORY;
+    private String plotDirectory = UtilityData.DIRECTORY;
+    private Set<String> reports = new LinkedHashSet<>(Arrays.asList(REPORTS));
+    private boolean stats;
+    private List<String> args = new ArrayList<>();
+
+    /**********************************************************************
+     * Constructor - the plan for our own household, every report
+     */
+
+    public RunPlan()
+    {
+    }
+
+    /**********************************************************************
+     * Constructor - the plan given by command line arguments
+     *
+     * @param args, the program arguments
+     * @throws IllegalArgumentException if an option is wrong - the message
+     *         says how
+     */
+
+    public RunPlan(String[] args)
+    {
+        for (int i = 0; i < args.length; i++)
+        {
+            String arg = args[i];
+            if (arg.equals("--stats"))
+            {
+                stats = true;
+            }
+            else if (arg.startsWith("--") && isOption(arg.substring(2)))
+            {
+                if (i + 1 == args.length)
+                {
+                    throw new IllegalArgumentException(arg + " needs a value");
+                }
+                set(arg.substring(2), args[++i]);
+            }
+            else if (arg.startsWith("--") && ! Arrays.asList(MODES).contains(arg))
+            {
+                throw new IllegalArgumentException("unknown option '" + arg + "'");
+            }
+            else
+            {
+                this.args.add(arg);
+            }
+        }
+    }
+
+    // Options that take a value
+    private static boolean isOption(String name)
+    {
+        return Arrays.asList("config", "historic", "recent", "rates", "journal", "output", "plots", "reports")
+                     .contains(name);
+    }
+
+    // Apply an option
+    private void set(String name, String value)
+    {
+        switch (name)
+        {
+            case "config":   readConfig(new File(value));                break;
+            case "historic": historic = new File(value);                 break;
+            case "recent":   recent = new File(value);                   break;
+            case "rates":    rates = new File(value);                    break;
+            case "journal":  journal = new File(value);                  break;
+            case "output":   outputDirectory = directory(value);         break;
+            case "plots":    plotDirectory = directory(value);           break;
+            case "reports":  reports = reportList(value);                break;
+            case "stats":    stats = Boolean.parseBoolean(value.trim()); break;
+            default:
+                throw new IllegalArgumentException("unknown option '" + name + "'");
+        }
+    }
+
+    // Apply the options in a config file - paths, then what to write
+    private void readConfig(File f)
+    {
+        Properties p = new Properties();
+        try (Reader in = new FileReader(f))
+        {
+            p.load(in);
+        }
+        catch (IOException e)
+        {
+            throw new IllegalArgumentException("unable to read " + f + ": " + e.getMessage());
+        }
+        for (String name : p.stringPropertyNames())
+        {
+            if (! isOption(name) && ! name.equals("stats"))
+            {
+                throw new IllegalArgumentException("unknown option '" + name + "' in " + f);
+            }
+        }
+        for (String name : new String[] { "historic", "recent", "rates", "journal", "output", "plots",
+                                          "reports", "stats" })
+        {
+            if (p.getProperty(name) != null)
+            {
+                set(name, p.getProperty(name));
+            }
+        }
+    }
+
+    // A directory name, ending in '/' as the report code expects
+    private static String directory(String name)
+    {
+        return name.endsWith(File.separator) ? name : name + File.separator;
+    }
+
+    // The reports named in a list, checked against REPORTS
+    private static Set<String> reportList(String list)
+    {
+        Set<String> wanted = new LinkedHashSet<>();
+        for (String name : list.trim().split("[,\\s]+"))
+        {
+            if (name.equals("all"))
+            {
+                wanted.addAll(Arrays.asList(REPORTS));
+            }
+            else if (Arrays.asList(REPORTS).contains(name))
+            {
+                wanted.add(name);
+            }
+            else if (! name.isEmpty())
+            {
+                throw new IllegalArgumentException("unknown report '" + name + "'; the reports are " +
+                                                   String.join(" ", REPORTS));
+            }
+        }
+        return wanted;
+    }
+
+    //----------------------------------------------------------------------
+    // The plan
+
+    public File historic()
+    {
+        return historic;
+    }
+
+    public File recent()
+    {
+        return recent;
+    }
+
+    public File rates()
+    {
+        return rates;
+    }
+
+    public File journal()
+    {
+        return journal;
+    }
+
+    public String outputDirectory()
+    {
+        return outputDirectory;
+    }
+
+    public String plotDirectory()
+    {
+        return plotDirectory;
+    }
+
+    public boolean stats()
+    {
+        return stats;
+    }
+
+    // The arguments that weren't options, in order
+    public List<String> args()
+    {
+        return args;
+    }
+
+    /**********************************************************************
+     * Returns true if a report is wanted
+     *
+     * @param name, of the report, as in REPORTS
+     */
+
+    public boolean wants(String name)
+    {
+        return reports.contains(name);
+    }
+
+    /**********************************************************************
+     * Returns true if any report wanted is of the smoothed data
+     */
+
+    public boolean needsSmoothing()
+    {
+        for (String name : reports)
+        {
+            if (name.startsWith("Smooth"))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+}
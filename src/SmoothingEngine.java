@@ -0,0 +1,260 @@
+/**************************************************************************
+ * Class SmoothingEngine.java to produce smoothed out copies of a series of
+ * daily costs. Each window keeps running sums, adding the day entering it
+ * and dropping the day leaving it, so a window of any length costs O(n);
+ * and any number of smoothed series are produced in one pass over the
+ * source data.
+ *
+ * The gas, electric and total costs are smoothed; every other field is
+ * copied across unchanged. Running sums are re-summed from scratch once
+ * per window length, so they differ from summing each window afresh only
+ * in the last bit or so - far below anything the reports print.
+ *
+ * @author Colin Brough
+ * @version Dev_01
+ */
+
+public class SmoothingEngine
+{
+    //----------------------------------------------------------------------
+    // The usual window lengths, in days
+
+    public static final int WEEK    = 7;
+    public static final int MONTH   = 30;
+    public static final int QUARTER = 90;
+    public static final int YEAR    = 365;
+
+    /**************************************************************************
+     * How each smoothed value relates to the days around it. Near the ends
+     * of the data, where a window would run off the end, the average is
+     * over those days of the window that exist.
+     */
+
+    public enum Kernel
+    {
+        LEADING,	// Mean of this day and the following window-1 days
+        TRAILING,	// Mean of this day and the preceding window-1 days
+        CENTRED,	// Mean of a window centred on this day
+        EXPONENTIAL	// Exponential moving average, alpha = 2/(window+1)
+    }
+
+    /**************************************************************************
+     * One smoothed series wanted - a window length and a kernel
+     */
+
+    public static class Spec
+    {
+        public final int window;
+        public final Kernel kernel;
+
+        public Spec(int window, Kernel kernel)
+        {
+            if (window < 1)
+            {
+                throw new IllegalArgumentException("Smoothing window must be at least 1 day");
+            }
+            this.window = window;
+            this.kernel = kernel;
+        }
+
+        @Override
+        public String toString()
+        {
+            return kernel + "/" + window;
+        }
+    }
+
+    /**********************************************************************
+     * Smooth the costs in a series for each of the specs given, in a single
+     * pass over the source.
+     *
+     * @param src, the series to smooth, with costs calculated
+     * @param specs, the smoothed series wanted
+     * @return one new series per spec, in the same order
+     */
+
+    public static UtilityColumns[] smooth(UtilityColumns src, Spec... specs)
+    {
+        UtilityColumns[] out = new UtilityColumns[specs.length];
+        int[] from = new int[specs.length];
+        for (int s = 0; s < specs.length; s++)
+        {
+            out[s] = new UtilityColumns(src.size);
+            copyReadings(src, out[s], 0);
+        }
+        run(src, out, specs, from);
+        return out;
+    }
+
+    /**********************************************************************
+     * Returns the index of the first smoothed value that changes when the
+     * source changes from index 'from' onwards (for example, when days are
+     * appended) - a leading or centred window reaches back that far.
+     *
+     * @param spec, the smoothing applied
+     * @param from, index of first changed day in the source
+     * @return index of the first changed smoothed day
+     */
+
+    public static int firstAffected(Spec spec, int from)
+    {
+        int[] window = window(spec);
+        return Math.max(0, from - window[1]);
+    }
+
+    /**********************************************************************
+     * Bring a smoothed series up to date after its source has changed from
+     * index 'from' onwards, recalculating only the smoothed days that the
+     * change can reach (see firstAffected()).
+     *
+     * @param src, the source series, with costs calculated
+     * @param dst, a series smoothed from an earlier version of src
+     * @param spec, the smoothing that was used to make dst
+     * @param from, index of first changed day in the source
+     */
+
+    public static void update(UtilityColumns src, UtilityColumns dst, Spec spec, int from)
+    {
+        from = Math.min(from, dst.size);
+        dst.ensureCapacity(src.size);
+        copyReadings(src, dst, from);
+        run(src, new UtilityColumns[] { dst }, new Spec[] { spec },
+            new int[] { firstAffected(spec, from) });
+    }
+
+    //----------------------------------------------------------------------
+    // The window for a spec, as offsets { lo, hi } from the day smoothed -
+    // the window for day i is days [i + lo, i + hi]. Unused for EXPONENTIAL.
+
+    private static int[] window(Spec spec)
+    {
+        int w = spec.window;
+        switch (spec.kernel)
+        {
+            case LEADING:
+                return new int[] { 0, w - 1 };
+            case TRAILING:
+                return new int[] { -(w - 1), 0 };
+            case CENTRED:
+                return new int[] { -((w - 1) / 2), w / 2 };
+            default:
+                return new int[] { 0, 0 };
+        }
+    }
+
+    /**********************************************************************
+     * The smoothing pass proper. Smoothed series s is recalculated from
+     * index from[s] to the end; the pass over the source starts at the
+     * earliest of these.
+     */
+
+    private static void run(UtilityColumns src, UtilityColumns[] out, Spec[] specs, int[] from)
+    {
+        int n = src.size;
+        int m = specs.length;
+
+        //------------------------------------------------------------------
+        // Each window is days [i + lo, i + hi] for day i, cut short at the
+        // ends of the data.
+
+        int[] lo = new int[m], hi = new int[m];
+        double[] alpha = new double[m];
+        double[][] sum = new double[m][3];
+        int start = n;
+        for (int s = 0; s < m; s++)
+        {
+            int[] window = window(specs[s]);
+            lo[s] = window[0];
+            hi[s] = window[1];
+            alpha[s] = 2.0 / (specs[s].window + 1);
+            start = Math.min(start, from[s]);
+        }
+
+        for (int i = start; i < n; i++)
+        {
+            for (int s = 0; s < m; s++)
+            {
+                if (i < from[s])
+                {
+                    continue;
+                }
+                UtilityColumns dst = out[s];
+                if (specs[s].kernel == Kernel.EXPONENTIAL)
+                {
+                    if (i == 0)
+                    {
+                        dst.gascost[0]   = src.gascost[0];
+                        dst.eleccost[0]  = src.eleccost[0];
+                        dst.totalcost[0] = src.totalcost[0];
+                    }
+                    else
+                    {
+                        double a = alpha[s];
+                        dst.gascost[i]   = dst.gascost[i-1]   + a * (src.gascost[i]   - dst.gascost[i-1]);
+                        dst.eleccost[i]  = dst.eleccost[i-1]  + a * (src.eleccost[i]  - dst.eleccost[i-1]);
+                        dst.totalcost[i] = dst.totalcost[i-1] + a * (src.totalcost[i] - dst.totalcost[i-1]);
+                    }
+                    continue;
+                }
+
+                double[] sm = sum[s];
+                int enter = i + hi[s], leave = i + lo[s] - 1;
+                int first = Math.max(i + lo[s], 0), last = Math.min(enter, n - 1);
+                if ((i == from[s]) || ((i % specs[s].window) == 0))
+                {
+                    // Re-sum the window from scratch at the start, and once
+                    // every window length days so rounding errors can't
+                    // accumulate; this still only doubles the work
+                    sm[0] = sm[1] = sm[2] = 0.0;
+                    for (int j = first; j <= last; j++)
+                    {
+                        sm[0] += src.gascost[j];
+                        sm[1] += src.eleccost[j];
+                        sm[2] += src.totalcost[j];
+                    }
+                }
+                else
+                {
+                    if (enter < n)
+                    {
+                        sm[0] += src.gascost[enter];
+                        sm[1] += src.eleccost[enter];
+                        sm[2] += src.totalcost[enter];
+                    }
+                    if (leave >= 0)
+                    {
+                        sm[0] -= src.gascost[leave];
+                        sm[1] -= src.eleccost[leave];
+                        sm[2] -= src.totalcost[leave];
+                    }
+                }
+                int span = last - first + 1;
+                dst.gascost[i]   = sm[0] / span;
+                dst.eleccost[i]  = sm[1] / span;
+                dst.totalcost[i] = sm[2] / span;
+            }
+        }
+    }
+
+    /**********************************************************************
+     * Copy everything except the costs, which are left for smoothing, from
+     * the source to the destination for days 'from' onwards; the
+     * destination ends up the same size as the source.
+     */
+
+    private static void copyReadings(UtilityColumns src, UtilityColumns dst, int from)
+    {
+        int n = src.size - from;
+        System.arraycopy(src.day,          from, dst.day,          from, n);
+        System.arraycopy(src.gasMeter,     from, dst.gasMeter,     from, n);
+        System.arraycopy(src.elecMeter,    from, dst.elecMeter,    from, n);
+        System.arraycopy(src.gasUsed,      from, dst.gasUsed,      from, n);
+        System.arraycopy(src.elecUsed,     from, dst.elecUsed,     from, n);
+        System.arraycopy(src.gasstanding,  from, dst.gasstanding,  from, n);
+        System.arraycopy(src.gasunitrate,  from, dst.gasunitrate,  from, n);
+        System.arraycopy(src.elecstanding, from, dst.elecstanding, from, n);
+        System.arraycopy(src.elecunitrate, from, dst.elecunitrate, from, n);
+        System.arraycopy(src.synthetic,    from, dst.synthetic,    from, n);
+        dst.size = src.size;
+    }
+}
@@ -0,0 +1,193 @@
+/**************************************************************************
+ * Class Stages.java to record where a run spends its time. Each stage of
+ * the pipeline - parsing each readings file, loading the rates,
+ * interpolating, costing, smoothing and writing each report - notes the
+ * wall time it took, the rows it handled and the bytes it allocated, and
+ * a few counters record finer detail (days interpolated, rates looked
+ * up). Stages of the same name are totalled together, so a long running
+ * daemon holds no more than a short run.
+ *
+ * Recording costs a couple of clock reads per stage, not per row, so is
+ * always on; the summary is only written if asked for (--stats). The
+ * bytes allocated are those allocated by the thread that ran the stage -
+ * work it hands to other threads isn't counted - and are -1 if the JVM
+ * can't measure them.
+ *
+ * @author Colin Brough
+ * @version Dev_01
+ */
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+
+public class Stages
+{
+    // Per-thread allocation counts, if the JVM provides them
+    private static final com.sun.management.ThreadMXBean THREADS = allocationBean();
+
+    // Stage name to { calls, nanoseconds, rows, bytes }, and counters
+    private static final Map<String, long[]> stages = new TreeMap<>();
+    private static final Map<String, long[]> counters = new TreeMap<>();
+
+    // Where the summary goes, or null for none
+    private static volatile File summary;
+
+    /**************************************************************************
+     * A stage in progress - end it when done
+     */
+
+    public static final class Stage
+    {
+        private final String name;
+        private final long start;
+        private final long startBytes;
+
+        private Stage(String name)
+        {
+            this.name = name;
+            this.startBytes = allocated();
+            this.start = System.nanoTime();
+        }
+
+        /**********************************************************************
+         * Note the stage as done
+         *
+         * @param rows, the number of rows (readings, days...) it handled
+         */
+
+        public void end(long rows)
+        {
+            long nanos = System.nanoTime() - start;
+            long bytes = (startBytes < 0) ? -1 : allocated() - startBytes;
+            synchronized (stages)
+            {
+                long[] s = stages.get(name);
+                if (s == null)
+                {
+                    stages.put(name, s = new long[4]);
+                }
+                s[0]++;
+                s[1] += nanos;
+                s[2] += rows;
+                s[3] = ((s[3] < 0) || (bytes < 0)) ? -1 : s[3] + bytes;
+            }
+        }
+    }
+
+    /**********************************************************************
+     * Start timing a stage, on the current thread
+     *
+     * @param name, of the stage - no spaces, so the summary can be split
+     *              into fields
+     * @return the stage, to end when done
+     */
+
+    public static Stage start(String name)
+    {
+        return new Stage(name);
+    }
+
+    /**********************************************************************
+     * Add to a counter
+     *
+     * @param name, of the counter - no spaces
+     * @param n, the amount to add
+     */
+
+    public static void count(String name, long n)
+    {
+        synchronized (counters)
+        {
+            long[] c = counters.get(name);
+            if (c == null)
+            {
+                counters.put(name, c = new long[1]);
+            }
+            c[0] += n;
+        }
+    }
+
+    /**********************************************************************
+     * Ask for the summary to be written, by writeSummary()
+     *
+     * @param f, file to write it to
+     */
+
+    public static void setSummary(File f)
+    {
+        summary = f;
+    }
+
+    /**********************************************************************
+     * Write the stages and counters so far to the summary file, if one has
+     * been asked for: a line per stage of name, calls, milliseconds, rows
+     * and bytes allocated, then a line per counter of name and value.
+     */
+
+    public static void writeSummary()
+    {
+        File f = summary;
+        if (f == null)
+        {
+            return;
+        }
+        try (ReportWriter stream = UtilityData.openReport(f.getPath()))
+        {
+            stream.printf("# Stage                     Calls          ms        Rows       Bytes\n" +
+                          "#--------------------------------------------------------------------\n");
+            synchronized (stages)
+            {
+                for (Map.Entry<String, long[]> e : stages.entrySet())
+                {
+                    long[] s = e.getValue();
+                    stream.printf(Locale.ROOT, "%-28s %6d %11.3f %11d %11d\n",
+                                  e.getKey(), s[0], s[1] / 1e6, s[2], s[3]);
+                }
+            }
+            stream.printf("\n# Counter                   Value\n" +
+                          "#--------------------------------------\n");
+            synchronized (counters)
+            {
+                for (Map.Entry<String, long[]> e : counters.entrySet())
+                {
+                    stream.printf(Locale.ROOT, "%-28s %11d\n", e.getKey(), e.getValue()[0]);
+                }
+            }
+            UtilityData.checkReport(stream, f.getName());
+        }
+        catch (FileNotFoundException e)
+        {
+            System.out.printf("Unable to open '%s' for writing\n", f.getName());
+        }
+    }
+
+    //----------------------------------------------------------------------
+    // Allocation measuring
+
+    private static com.sun.management.ThreadMXBean allocationBean()
+    {
+        try
+        {
+            java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+            if ((bean instanceof com.sun.management.ThreadMXBean) &&
+                ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported())
+            {
+                com.sun.management.ThreadMXBean b = (com.sun.management.ThreadMXBean) bean;
+                b.setThreadAllocatedMemoryEnabled(true);
+                return b;
+            }
+        }
+        catch (UnsupportedOperationException | SecurityException | LinkageError e)
+        {
+            // Not measurable here
+        }
+        return null;
+    }
+
+    // Bytes allocated so far by the current thread, or -1 if not known
+    private static long allocated()
+    {
+        return (THREADS == null) ? -1 : THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
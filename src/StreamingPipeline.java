@@ -0,0 +1,718 @@
+/**************************************************************************
+ * Class StreamingPipeline.java to produce the usual reports from readings
+ * files of any length in a fixed amount of memory, rather than holding
+ * the whole history as UtilityData does.
+ *
+ * The readings flow through a chain of stages, each keeping only what it
+ * needs:
+ *
+ *   - each file is read a line at a time (see ReadingsParser.Stream),
+ *     through a small window that puts lines a little out of order back
+ *     in order, and lets a later line for a date replace an earlier one;
+ *   - the files are merged a reading at a time, the later file winning
+ *     where both have a date, as setReadingsFromFiles() does; then the
+ *     readings journal, if set, winning over them all - it is small
+ *     enough to hold, being compacted from time to time;
+ *   - gaps are interpolated from the previous reading;
+ *   - the days are gathered into blocks of BLOCK days, and each block
+ *     has its usage, rates and costs worked out by the same code as
+ *     calculateDailyCosts() (see CostKernel) - carrying the last meter
+ *     readings over from one block to the next;
+ *   - each block is written to the reports as it is made, with only the
+ *     current week, month and year being totalled, and to the smoother,
+ *     which keeps a ring of the last 31 days for the leading 30 day
+ *     average and writes the smoothed reports the same way.
+ *
+ * Every figure is worked out by the same arithmetic, in the same order,
+ * as the normal path, so the reports are identical to those written by
+ * MeterProcessMain without --stream - provided no reading is more than
+ * REORDER readings out of place in its file; one that is further out is
+ * reported and ignored.
+ *
+ * Only the reports the run plan wants are written, if one is set; the
+ * smoothing is left out altogether if no smoothed report is wanted.
+ *
+ * The reports are written to new files, which replace the old ones only
+ * once everything has been read and written; if a file can't be read part
+ * way through, the new files are deleted and the old reports left as
+ * they were.
+ *
+ * @author Colin Brough
+ * @version Dev_01
+ */
+
+import java.io.*;
+import java.nio.file.*;
+import java.time.LocalDate;
+import java.util.*;
+
+public class StreamingPipeline
+{
+    // Days costed and reported at a time
+    static final int BLOCK = 4096;
+    // Readings a line can be out of order by in its file
+    static final int REORDER = 64;
+    // The smoothing applied - a leading 30 day average, as MeterProcessMain
+    static final int WINDOW = SmoothingEngine.MONTH;
+
+    private final RatesData rates;
+    private String outputDirectory = UtilityData.GENDIRECTORY;
+    private String plotDirectory = UtilityData.DIRECTORY;
+    private ReadingsJournal.Contents journal;
+    private RunPlan plan;		// Which reports are wanted; null for all
+
+    //----------------------------------------------------------------------
+    // State carried from one stage to the next while running
+
+    private UtilityColumns block;	// Days waiting to be costed
+    private int days;			// Days costed so far
+    private double lastElecMeter, lastGasMeter;	// Readings on the last day costed
+    private Reports reports, smoothReports;
+    private Smoother smoother;
+    private boolean complete;		// All read and written - keep the reports
+
+    /**********************************************************************
+     * Constructor
+     *
+     * @param rates, the rates to apply to readings
+     */
+
+    public StreamingPipeline(RatesData rates)
+    {
+        this.rates = rates;
+    }
+
+    /**********************************************************************
+     * Set where the reports are written, in place of the usual
+     * GENDIRECTORY and DIRECTORY
+     *
+     * @param output, directory for the data files, ending in '/'
+     * @param plot, directory for the gnuplot files, ending in '/'
+     */
+
+    public void setOutputDirectories(String output, String plot)
+    {
+        outputDirectory = output;
+        plotDirectory = plot;
+    }
+
+    /**********************************************************************
+     * Set which reports are written - those the plan wants, rather than
+     * all of them
+     *
+     * @param plan, the run plan
+     */
+
+    public void setReports(RunPlan plan)
+    {
+        this.plan = plan;
+    }
+
+    /**********************************************************************
+     * Set readings added through the journal, to be merged in after the
+     * files; its rates should already be in the rates given to the
+     * constructor
+     *
+     * @param journal, the journal's contents
+     */
+
+    public void setJournal(ReadingsJournal.Contents journal)
+    {
+        this.journal = journal;
+    }
+
+    /**********************************************************************
+     * Read the readings files and write the reports, all in one pass
+     *
+     * @param files, readings files, oldest source first - where more than
+     *        one has a reading for a date, the later file's is used
+     * @return the number of days reported on
+     * @throws IOException if a file can't be read or a report written
+     */
+
+    public int run(File... files) throws IOException
+    {
+        Stages.Stage stage = Stages.start("stream");
+        block = new UtilityColumns(BLOCK);
+        days = 0;
+        complete = false;
+        ArrayList<Source> sources = new ArrayList<>();
+        try
+        {
+            for (File f : files)
+            {
+                sources.add(new Source(f));
+            }
+            if (journal != null)
+            {
+                sources.add(new Source("readings journal", journal));
+            }
+            try (Reports plain = new Reports("", true);
+                 Reports smooth = new Reports("Smooth", false))
+            {
+                reports = plain;
+                smoothReports = smooth;
+                smoother = ((plan == null) || plan.needsSmoothing()) ? new Smoother(smoothReports) : null;
+
+                for (Source s : sources)
+                {
+                    s.advance();
+                }
+                merge(sources);
+                cost();
+                if (smoother != null)
+                {
+                    smoother.finish();
+                }
+                reports.finish();
+                smoothReports.finish();
+                complete = true;
+            }
+            stage.end(days);
+        }
+        finally
+        {
+            for (Source s : sources)
+            {
+                s.close();
+            }
+        }
+        return days;
+    }
+
+    //----------------------------------------------------------------------
+    // Merge the sources a reading at a time, interpolating any gap before
+    // each reading, and pass every day on to be costed
+
+    private void merge(ArrayList<Source> sources) throws IOException
+    {
+        boolean first = true;
+        int prevDay = 0;
+        double prevElec = 0, prevGas = 0;
+        while (true)
+        {
+            int d = Integer.MAX_VALUE;
+            for (Source s : sources)
+            {
+                if (s.has)
+                {
+                    d = Math.min(d, s.day);
+                }
+            }
+            if (d == Integer.MAX_VALUE)
+            {
+                return;
+            }
+
+            // The reading from the last source with this date wins
+            Source winner = null;
+            for (Source s : sources)
+            {
+                if (! s.has || (s.day != d))
+                {
+                    continue;
+                }
+                if ((winner != null) && ((winner.elec != s.elec) || (winner.gas != s.gas)))
+                {
+                    System.out.printf("WARNING: readings for %s differ between %s and %s; using %s\n",
+                                      LocalDate.ofEpochDay(d), winner.name, s.name, s.name);
+                }
+                winner = s;
+            }
+            double elec = winner.elec, gas = winner.gas;
+            for (Source s : sources)
+            {
+                if (s.has && (s.day == d))
+                {
+                    s.advance();
+                }
+            }
+
+            // Interpolate, as UtilityData.interpolateReadings()
+            if (! first)
+            {
+                long gap = d - prevDay - 1;
+                for (int j = 1; j <= gap; j++)
+                {
+                    day(prevDay + j,
+                        prevElec + ((elec - prevElec)/(gap+1)) * j,
+                        prevGas  + ((gas  - prevGas) /(gap+1)) * j);
+                }
+            }
+            day(d, elec, gas);
+            first = false;
+            prevDay = d;
+            prevElec = elec;
+            prevGas = gas;
+        }
+    }
+
+    // Add one day's readings to the block, costing it once full
+    private void day(int d, double elec, double gas) throws IOException
+    {
+        block.append(d, elec, gas);
+        if (block.size == BLOCK)
+        {
+            cost();
+        }
+    }
+
+    //----------------------------------------------------------------------
+    // Work out the usage, rates and costs of the days in the block, as
+    // UtilityData.calculateDailyCosts(), then report on them and empty it
+
+    private void cost()
+    {
+        UtilityColumns c = block;
+        int n = c.size;
+        if (n == 0)
+        {
+            return;
+        }
+        c.gasUsed[0]  = (days == 0) ? 0.0 : c.gasMeter[0]  - lastGasMeter;
+        c.elecUsed[0] = (days == 0) ? 0.0 : c.elecMeter[0] - lastElecMeter;
+        CostKernel.usage(c.gasMeter,  c.gasUsed,  1, n);
+        CostKernel.usage(c.elecMeter, c.elecUsed, 1, n);
+        rates.resolveRates(c.day, 0, n, c.gasstanding, c.gasunitrate, c.elecstanding, c.elecunitrate);
+        CostKernel.flatCosts(c, 0, n);
+
+        reports.add(c);
+        if (smoother != null)
+        {
+            smoother.add(c);
+        }
+
+        lastGasMeter  = c.gasMeter[n-1];
+        lastElecMeter = c.elecMeter[n-1];
+        days += n;
+        c.size = 0;
+    }
+
+    /**************************************************************************
+     * One readings file, read in order - its next reading is 'day', 'elec'
+     * and 'gas' while 'has' is true. Up to REORDER readings are read ahead,
+     * and handed on in date order. Or the readings in a journal, all held
+     * at once.
+     */
+
+    private static class Source implements Closeable
+    {
+        final String name;
+        final ReadingsParser.Stream in;
+        final TreeMap<Integer, double[]> ahead = new TreeMap<>();	// Read, not yet handed on
+        boolean more = true;		// Lines left in the file
+
+        boolean has;			// There is a reading
+        int day;
+        double elec, gas;
+
+        Source(File f) throws IOException
+        {
+            name = f.getName();
+            in = new ReadingsParser.Stream(f, 2);	// Electric then gas reading
+        }
+
+        Source(String name, ReadingsJournal.Contents journal)
+        {
+            this.name = name;
+            in = null;
+            more = false;
+            for (int i = 0; i < journal.count; i++)
+            {
+                ahead.put(journal.days[i], new double[] { journal.elec[i], journal.gas[i] });	// Later wins
+            }
+        }
+
+        // Move on to the next reading, if there is one
+        void advance() throws IOException
+        {
+            while (more && (ahead.size() <= REORDER))
+            {
+                more = in.next();
+                for (String error : in.errors)
+                {
+                    System.out.println("WARNING: skipping malformed line " + error);
+                }
+                in.errors.clear();
+                if (! more)
+                {
+                    break;
+                }
+                if (has && (in.day <= day))
+                {
+                    System.out.println("WARNING: ignoring reading for " + LocalDate.ofEpochDay(in.day) +
+                                       " in " + name + ", too far out of date order");
+                    continue;
+                }
+                ahead.put(in.day, new double[] { in.values[0], in.values[1] });	// Later line wins
+            }
+            Map.Entry<Integer, double[]> next = ahead.pollFirstEntry();
+            has = (next != null);
+            if (has)
+            {
+                day  = next.getKey();
+                elec = next.getValue()[0];
+                gas  = next.getValue()[1];
+            }
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            if (in != null)
+            {
+                in.close();
+            }
+        }
+    }
+
+    /**************************************************************************
+     * The leading 30 day average of the costs, worked out as
+     * SmoothingEngine does - running sums, re-summed every window length
+     * days - from a ring of the last WINDOW + 1 days, the day before the
+     * window being needed to take it back out of the sums. A smoothed day
+     * is made once the last day of its window has arrived, or at the end
+     * of the data.
+     */
+
+    private class Smoother
+    {
+        private final int ring = WINDOW + 1;
+        private final int[] day = new int[ring];
+        private final double[] gasUsed = new double[ring], elecUsed = new double[ring];
+        private final double[] gasCost = new double[ring], elecCost = new double[ring];
+        private final double[] totalCost = new double[ring];
+
+        private int n;				// Days received
+        private int next;			// Next day to smooth
+        private final double[] sum = new double[3];
+        private final UtilityColumns out = new UtilityColumns(BLOCK);
+        private final Reports reports;
+
+        Smoother(Reports reports)
+        {
+            this.reports = reports;
+        }
+
+        // Take in a block of costed days
+        void add(UtilityColumns c)
+        {
+            for (int i = 0; i < c.size; i++)
+            {
+                int r = n % ring;
+                day[r]       = c.day[i];
+                gasUsed[r]   = c.gasUsed[i];
+                elecUsed[r]  = c.elecUsed[i];
+                gasCost[r]   = c.gascost[i];
+                elecCost[r]  = c.eleccost[i];
+                totalCost[r] = c.totalcost[i];
+                n++;
+                if (next + WINDOW - 1 < n)
+                {
+                    smooth(next++);
+                }
+            }
+        }
+
+        // At the end of the data, smooth the days left, whose windows are
+        // cut short
+        void finish()
+        {
+            while (next < n)
+            {
+                smooth(next++);
+            }
+            flush();
+        }
+
+        private void smooth(int i)
+        {
+            int enter = i + WINDOW - 1, leave = i - 1;
+            int last = Math.min(enter, n - 1);
+            if ((i % WINDOW) == 0)
+            {
+                sum[0] = sum[1] = sum[2] = 0.0;
+                for (int j = i; j <= last; j++)
+                {
+                    sum[0] += gasCost[j % ring];
+                    sum[1] += elecCost[j % ring];
+                    sum[2] += totalCost[j % ring];
+                }
+            }
+            else
+            {
+                if (enter < n)
+                {
+                    sum[0] += gasCost[enter % ring];
+                    sum[1] += elecCost[enter % ring];
+                    sum[2] += totalCost[enter % ring];
+                }
+                sum[0] -= gasCost[leave % ring];
+                sum[1] -= elecCost[leave % ring];
+                sum[2] -= totalCost[leave % ring];
+            }
+            int span = last - i + 1;
+            int r = i % ring;
+            int k = out.size++;
+            out.day[k]       = day[r];
+            out.gasUsed[k]   = gasUsed[r];
+            out.elecUsed[k]  = elecUsed[r];
+            out.gascost[k]   = sum[0] / span;
+            out.eleccost[k]  = sum[1] / span;
+            out.totalcost[k] = sum[2] / span;
+            if (out.size == BLOCK)
+            {
+                flush();
+            }
+        }
+
+        private void flush()
+        {
+            reports.add(out);
+            out.size = 0;
+        }
+    }
+
+    /**************************************************************************
+     * One set of reports - Daily, Weekly, Monthly and the Year files, and
+     * optionally DaysOfWeek, those the plan wants - written as blocks of
+     * days arrive, with the same lines as UtilityData's report methods.
+     * Only the current week, month and year are held.
+     *
+     * Each report is written to a ".new" file alongside it. Closing the
+     * set moves them into place if the run completed, or deletes them if
+     * it didn't - so the reports are never left half written.
+     */
+
+    private class Reports implements Closeable
+    {
+        private final String prefix;		// Of each report's name
+        private final boolean daysOfWeek;	// Write DaysOfWeek.dat too
+        private final boolean years;		// Write the Year files
+        private ReportWriter daily, weekly, monthly;
+        private ReportWriter yearFile;
+        private final List<String> written = new ArrayList<>();	// Reports opened, by name
+
+        private final UtilityAggregates.Rollup week  = new UtilityAggregates.Rollup(1);
+        private final UtilityAggregates.Rollup month = new UtilityAggregates.Rollup(1);
+        private final UtilityAggregates.Rollup dow   = new UtilityAggregates.Rollup(8);
+
+        private int n;				// Days written
+        private int weeks;			// Weeks started
+        private int weekKey = Integer.MIN_VALUE, weekStart;
+        private int monthKey = -1;
+        private int year = -1, firstOfYear;
+
+        Reports(String prefix, boolean daysOfWeek) throws IOException
+        {
+            this.prefix = prefix;
+            this.daysOfWeek = daysOfWeek && wanted("DaysOfWeek.dat");
+            this.years = wanted("Year");
+            try
+            {
+                daily   = open("Daily.dat",   UtilityData.DAILYHEADER);
+                weekly  = open("Weekly.dat",  UtilityData.WEEKLYHEADER);
+                monthly = open("Monthly.dat", UtilityData.MONTHLYHEADER);
+            }
+            catch (IOException e)
+            {
+                close();			// Not complete, so deletes any opened
+                throw e;
+            }
+            month.key[0] = -1;
+        }
+
+        // Returns true if the plan wants a report of this set
+        private boolean wanted(String name)
+        {
+            return (plan == null) || plan.wants(prefix + name);
+        }
+
+        // Open the new file for a report, and write its header, if it's
+        // wanted; null if not
+        private ReportWriter open(String name, String header) throws FileNotFoundException
+        {
+            if (! wanted(name))
+            {
+                return null;
+            }
+            ReportWriter stream = open(name);
+            stream.print(header);
+            return stream;
+        }
+
+        // Open the new file for a report
+        private ReportWriter open(String name) throws FileNotFoundException
+        {
+            ReportWriter stream = UtilityData.openReport(outputDirectory + prefix + name + ".new");
+            written.add(name);
+            return stream;
+        }
+
+        // Write a block of days
+        void add(UtilityColumns c)
+        {
+            for (int i = 0; i < c.size; i++, n++)
+            {
+                int day = c.day[i];
+                int ymd = EpochDays.civil(day);
+                int d   = EpochDays.dayOfWeek(day);
+                int y   = EpochDays.year(ymd);
+                int m   = EpochDays.month(ymd);
+
+                if (daily != null)
+                {
+                    UtilityData.dailyLine(daily, n, c, i);
+                }
+
+                int monday = day - (d - 1);
+                if (monday != weekKey)
+                {
+                    endWeek();
+                    week.clear(0);
+                    weekKey = monday;
+                    weekStart = day;
+                    weeks++;
+                }
+                if (y * 100 + m != monthKey)
+                {
+                    endMonth();
+                    month.clear(0);
+                    monthKey = month.key[0] = y * 100 + m;
+                }
+                if (y != year)
+                {
+                    endYear();
+                    startYear(y);
+                }
+                week.add(0, c, i);
+                month.add(0, c, i);
+                if (yearFile != null)
+                {
+                    UtilityData.yearLine(yearFile, firstOfYear, c, i);
+                }
+                if (daysOfWeek && (day > UtilityAggregates.NORMALUSAGEFROM))
+                {
+                    dow.add(d, c, i);
+                }
+            }
+        }
+
+        // The first week is skipped, as in printWeeklyReadings()
+        private void endWeek()
+        {
+            if ((weeks > 1) && (weekly != null))
+            {
+                UtilityData.weeklyLine(weekly, weeks - 2, weekStart, week, 0);
+            }
+        }
+
+        private void endMonth()
+        {
+            if ((monthKey >= 0) && (monthly != null))
+            {
+                UtilityData.monthlyLine(monthly, month, 0);
+            }
+        }
+
+        private void startYear(int y)
+        {
+            year = y;
+            firstOfYear = EpochDays.of(y, 1, 1) - 1;
+            if (! years)
+            {
+                return;
+            }
+            String filename = prefix + "Year" + y + ".dat";
+            try
+            {
+                yearFile = open("Year" + y + ".dat");
+                UtilityData.yearHeader(yearFile, y);
+            }
+            catch (FileNotFoundException e)
+            {
+                System.out.println("Unable to open '" + filename + "' for writing");
+                yearFile = null;
+            }
+        }
+
+        private void endYear()
+        {
+            if (yearFile != null)
+            {
+                UtilityData.checkReport(yearFile, prefix + "Year" + year + ".dat");
+                yearFile.close();
+                yearFile = null;
+            }
+        }
+
+        // Finish off the last week, month and year, and write the reports
+        // that need all the data
+        void finish() throws IOException
+        {
+            endWeek();
+            endMonth();
+            endYear();
+            daily   = finish(daily, "Daily.dat");
+            weekly  = finish(weekly, "Weekly.dat");
+            monthly = finish(monthly, "Monthly.dat");
+
+            if (daysOfWeek)
+            {
+                try (ReportWriter stream = open("DaysOfWeek.dat"))
+                {
+                    stream.print(UtilityData.DAYSOFWEEKHEADER);
+                    for (int i = 1; i <= 7; i++)
+                    {
+                        UtilityData.averageLine(stream, dow, i, 1);
+                    }
+                    UtilityData.checkReport(stream, prefix + "DaysOfWeek.dat");
+                }
+            }
+        }
+
+        private ReportWriter finish(ReportWriter stream, String name)
+        {
+            if (stream == null)
+            {
+                return null;
+            }
+            UtilityData.checkReport(stream, prefix + name);
+            stream.close();
+            return null;
+        }
+
+        // Put the new reports in place if the run completed, otherwise
+        // throw them away
+        @Override
+        public void close() throws IOException
+        {
+            for (ReportWriter stream : new ReportWriter[] { daily, weekly, monthly, yearFile })
+            {
+                if (stream != null)
+                {
+                    stream.close();
+                }
+            }
+            daily = weekly = monthly = yearFile = null;
+
+            for (String name : written)
+            {
+                Path temp = Paths.get(outputDirectory + prefix + name + ".new");
+                if (complete)
+                {
+                    Files.move(temp, Paths.get(outputDirectory + prefix + name), StandardCopyOption.REPLACE_EXISTING);
+                }
+                else
+                {
+                    Files.deleteIfExists(temp);
+                }
+            }
+            if (complete && years && (n > 0))
+            {
+                UtilityData.printYearPlot(outputDirectory, plotDirectory, prefix + "Year", year);
+            }
+            written.clear();
+        }
+    }
+}
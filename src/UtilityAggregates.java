@@ -0,0 +1,240 @@
+/**************************************************************************
+ * Class UtilityAggregates.java to hold the usage and cost totals that the
+ * reports print - by ISO week, calendar month, year, day of the week and
+ * month of the year - all filled in by a single pass over the daily data.
+ * The report methods in UtilityData then only format these buckets.
+ *
+ * @author Colin Brough
+ * @version Dev_01
+ */
+
+import java.time.LocalDate;
+import java.util.Arrays;
+
+public class UtilityAggregates
+{
+    //----------------------------------------------------------------------
+    // The day of week and month of year averages only count days after
+    // this - around when we moved in, after dehumidifiers stopped, so
+    // electricity usage should be coming down.
+
+    static final int NORMALUSAGEFROM = (int) LocalDate.of(2022, 8, 1).toEpochDay();
+
+    /**************************************************************************
+     * A set of buckets, each totalling a run of consecutive days (for
+     * weeks, months and years) or a selection of days (for day of week and
+     * month of year). Bucket b covers 'days[b]' days of data, the first of
+     * them at index 'start[b]' in the daily series.
+     */
+
+    public static class Rollup
+    {
+        public int count;		// Number of buckets in use
+        public int[] start;		// Index of first day in bucket
+        public int[] days;		// Number of days in bucket
+        public int[] key;		// Year, month, etc identifying bucket
+        public double[] gasUsed;
+        public double[] elecUsed;
+        public double[] gasCost;
+        public double[] elecCost;
+        public double[] totalCost;
+
+        Rollup(int capacity)
+        {
+            capacity  = Math.max(capacity, 1);
+            start     = new int[capacity];
+            days      = new int[capacity];
+            key       = new int[capacity];
+            gasUsed   = new double[capacity];
+            elecUsed  = new double[capacity];
+            gasCost   = new double[capacity];
+            elecCost  = new double[capacity];
+            totalCost = new double[capacity];
+        }
+
+        // Start a new bucket, for consecutive-day rollups
+        void open(int index, int k)
+        {
+            if (count == start.length)
+            {
+                int capacity = count * 2;
+                start     = Arrays.copyOf(start,     capacity);
+                days      = Arrays.copyOf(days,      capacity);
+                key       = Arrays.copyOf(key,       capacity);
+                gasUsed   = Arrays.copyOf(gasUsed,   capacity);
+                elecUsed  = Arrays.copyOf(elecUsed,  capacity);
+                gasCost   = Arrays.copyOf(gasCost,   capacity);
+                elecCost  = Arrays.copyOf(elecCost,  capacity);
+                totalCost = Arrays.copyOf(totalCost, capacity);
+            }
+            start[count] = index;
+            key[count] = k;
+            count++;
+        }
+
+        // Empty bucket b
+        void clear(int b)
+        {
+            days[b] = 0;
+            gasUsed[b] = elecUsed[b] = 0.0;
+            gasCost[b] = elecCost[b] = totalCost[b] = 0.0;
+        }
+
+        // Add one day's data, index i of the series, into bucket b
+        void add(int b, UtilityColumns c, int i)
+        {
+            days[b]++;
+            gasUsed[b]   += c.gasUsed[i];
+            elecUsed[b]  += c.elecUsed[i];
+            gasCost[b]   += c.gascost[i];
+            elecCost[b]  += c.eleccost[i];
+            totalCost[b] += c.totalcost[i];
+        }
+
+        // Add (sign 1) or take away (sign -1) one day's data in bucket b
+        void add(int b, UtilityColumns c, int i, int sign)
+        {
+            days[b]      += sign;
+            gasUsed[b]   += sign * c.gasUsed[i];
+            elecUsed[b]  += sign * c.elecUsed[i];
+            gasCost[b]   += sign * c.gascost[i];
+            elecCost[b]  += sign * c.eleccost[i];
+            totalCost[b] += sign * c.totalcost[i];
+        }
+    }
+
+    //----------------------------------------------------------------------
+    // The rollups. Week keys are the epoch day of the Monday; month keys
+    // are year * 100 + month; year keys the year. The day of week rollup
+    // has fixed buckets 1..7 (Monday..Sunday), month of year 1..12.
+
+    public final Rollup weekly;
+    public final Rollup monthly;
+    public final Rollup yearly;
+    public final Rollup dayOfWeek;
+    public final Rollup monthOfYear;
+
+    /**********************************************************************
+     * Constructor - work out all the rollups of the given daily data in
+     * one pass. The weekly and monthly rollups assume every day is present
+     * (ie the readings have been interpolated).
+     *
+     * @param the daily data
+     */
+
+    public UtilityAggregates(UtilityColumns c)
+    {
+        int n = c.size;
+        weekly      = new Rollup(n / 7 + 2);
+        monthly     = new Rollup(n / 28 + 2);
+        yearly      = new Rollup(n / 365 + 2);
+        dayOfWeek   = new Rollup(8);
+        monthOfYear = new Rollup(13);
+        dayOfWeek.count   = 8;
+        monthOfYear.count = 13;
+
+        extend(c, 0);
+    }
+
+    /**********************************************************************
+     * Add days 'from' onwards of the daily data into the rollups - for
+     * when days have been appended to the data since the rollups were last
+     * brought up to date. Only the new days are visited.
+     *
+     * @param the daily data
+     * @param index of the first day not yet included
+     */
+
+    public void extend(UtilityColumns c, int from)
+    {
+        int week  = (weekly.count  > 0) ? weekly.key[weekly.count - 1]   : Integer.MIN_VALUE;
+        int month = (monthly.count > 0) ? monthly.key[monthly.count - 1] : -1;
+        int year  = (yearly.count  > 0) ? yearly.key[yearly.count - 1]   : -1;
+
+        for (int i = from; i < c.size; i++)
+        {
+            int day = c.day[i];
+            int ymd = EpochDays.civil(day);
+            int dow = EpochDays.dayOfWeek(day);
+            int y   = EpochDays.year(ymd);
+            int m   = EpochDays.month(ymd);
+
+            int monday = day - (dow - 1);
+            if (monday != week)
+            {
+                weekly.open(i, monday);
+                week = monday;
+            }
+            if (y * 100 + m != month)
+            {
+                monthly.open(i, y * 100 + m);
+                month = y * 100 + m;
+            }
+            if (y != year)
+            {
+                yearly.open(i, y);
+                year = y;
+            }
+            weekly.add(weekly.count - 1, c, i);
+            monthly.add(monthly.count - 1, c, i);
+            yearly.add(yearly.count - 1, c, i);
+
+            if (day > NORMALUSAGEFROM)
+            {
+                dayOfWeek.add(dow, c, i);
+                monthOfYear.add(m, c, i);
+            }
+        }
+    }
+
+    /**********************************************************************
+     * Take days 'from' onwards back out of the rollups, before those days
+     * are changed; extend() then puts the new values in. Must be called
+     * while the data still holds the values that were added. Week, month
+     * and year buckets are cut back and re-summed, so stay exact; day of
+     * week and month of year totals have the old values subtracted.
+     *
+     * @param the daily data, as it was when added
+     * @param index of the first day about to change
+     */
+
+    public void retract(UtilityColumns c, int from)
+    {
+        retract(weekly,  c, from);
+        retract(monthly, c, from);
+        retract(yearly,  c, from);
+
+        for (int i = from; i < c.size; i++)
+        {
+            int day = c.day[i];
+            if (day > NORMALUSAGEFROM)
+            {
+                int b = EpochDays.dayOfWeek(day);
+                int m = EpochDays.month(EpochDays.civil(day));
+                dayOfWeek.add(b, c, i, -1);
+                monthOfYear.add(m, c, i, -1);
+            }
+        }
+    }
+
+    // Cut a run of consecutive-day buckets back so it covers only the days
+    // before 'from', re-summing the bucket that is cut in two
+    private static void retract(Rollup r, UtilityColumns c, int from)
+    {
+        while ((r.count > 0) && (r.start[r.count - 1] >= from))
+        {
+            r.count--;
+            r.clear(r.count);
+        }
+        if (r.count > 0)
+        {
+            int b = r.count - 1;
+            int first = r.start[b];
+            r.clear(b);
+            for (int i = first; i < from; i++)
+            {
+                r.add(b, c, i);
+            }
+        }
+    }
+}
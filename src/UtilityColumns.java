@@ -0,0 +1,332 @@
+/**************************************************************************
+ * Class UtilityColumns.java to hold a date ordered series of daily meter
+ * data column by column - one primitive array per field of UtilityField -
+ * rather than as one object per day. Used as the storage behind
+ * UtilityData; loops over a single field then run straight down one array.
+ *
+ * @author Colin Brough
+ * @version Dev_01
+ */
+
+import java.time.LocalDate;
+import java.util.*;
+
+public class UtilityColumns
+{
+    //----------------------------------------------------------------------
+    // Number of days held; the arrays may be longer than this
+
+    int size;
+
+    //----------------------------------------------------------------------
+    // The columns, all the same length. Entry i of each is one day's data,
+    // as the same-named fields of UtilityField.
+
+    int[]    day;		// Epoch day (LocalDate.toEpochDay()) of these readings
+    double[] gasMeter;		// Gas meter reading, absolute
+    double[] elecMeter;		// Electric meter reading, absolute
+    double[] gasUsed;		// Difference between this and previous reading
+    double[] elecUsed;		// Difference between this and previous reading
+    double[] gasstanding;	// Daily standing charge, gas
+    double[] gasunitrate;	// Unit rate, gas
+    double[] elecstanding;	// Daily standing charge, electric
+    double[] elecunitrate;	// Unit rate, electric
+    double[] gascost;
+    double[] eleccost;
+    double[] totalcost;
+
+    boolean[] synthetic;	// True for days filled in by interpolation
+
+    /**********************************************************************
+     * Constructor - empty series, with room for the given number of days
+     *
+     * @param initial capacity
+     */
+
+    public UtilityColumns(int capacity)
+    {
+        capacity = Math.max(capacity, 16);
+        day          = new int[capacity];
+        gasMeter     = new double[capacity];
+        elecMeter    = new double[capacity];
+        gasUsed      = new double[capacity];
+        elecUsed     = new double[capacity];
+        gasstanding  = new double[capacity];
+        gasunitrate  = new double[capacity];
+        elecstanding = new double[capacity];
+        elecunitrate = new double[capacity];
+        gascost      = new double[capacity];
+        eleccost     = new double[capacity];
+        totalcost    = new double[capacity];
+        synthetic    = new boolean[capacity];
+    }
+
+    /**********************************************************************
+     * Returns the number of days held
+     */
+
+    public int size()
+    {
+        return size;
+    }
+
+    /**********************************************************************
+     * Returns true if the series is dense - one entry for every day from
+     * the first to the last, as after interpolation. Days are always held
+     * in order with no duplicates, so this is a constant time check.
+     */
+
+    public boolean isDense()
+    {
+        return (size == 0) || (day[size-1] - day[0] == size - 1);
+    }
+
+    /**********************************************************************
+     * Find the index of the given epoch day. For a dense series this is
+     * just the offset from the first day; otherwise a binary search.
+     *
+     * @param epoch day to look for
+     * @return index of that day, or -1 if it isn't held
+     */
+
+    public int indexOf(long d)
+    {
+        if (size == 0)
+        {
+            return -1;
+        }
+        if (isDense())
+        {
+            long i = d - day[0];
+            return ((i >= 0) && (i < size)) ? (int) i : -1;
+        }
+        if ((d < day[0]) || (d > day[size-1]))
+        {
+            return -1;
+        }
+        int i = Arrays.binarySearch(day, 0, size, (int) d);
+        return (i >= 0) ? i : -1;
+    }
+
+    /**********************************************************************
+     * Make sure the columns can hold at least the given number of days
+     *
+     * @param required capacity
+     */
+
+    public void ensureCapacity(int n)
+    {
+        if (n <= day.length)
+        {
+            return;
+        }
+        int capacity = Math.max(n, day.length + (day.length >> 1));
+        day          = Arrays.copyOf(day,          capacity);
+        gasMeter     = Arrays.copyOf(gasMeter,     capacity);
+        elecMeter    = Arrays.copyOf(elecMeter,    capacity);
+        gasUsed      = Arrays.copyOf(gasUsed,      capacity);
+        elecUsed     = Arrays.copyOf(elecUsed,     capacity);
+        gasstanding  = Arrays.copyOf(gasstanding,  capacity);
+        gasunitrate  = Arrays.copyOf(gasunitrate,  capacity);
+        elecstanding = Arrays.copyOf(elecstanding, capacity);
+        elecunitrate = Arrays.copyOf(elecunitrate, capacity);
+        gascost      = Arrays.copyOf(gascost,      capacity);
+        eleccost     = Arrays.copyOf(eleccost,     capacity);
+        totalcost    = Arrays.copyOf(totalcost,    capacity);
+        synthetic    = Arrays.copyOf(synthetic,    capacity);
+    }
+
+    /**********************************************************************
+     * Returns an independent copy of the series, trimmed to its size
+     */
+
+    public UtilityColumns copy()
+    {
+        UtilityColumns c = new UtilityColumns(0);
+        int capacity = Math.max(size, 16);
+        c.size         = size;
+        c.day          = Arrays.copyOf(day,          capacity);
+        c.gasMeter     = Arrays.copyOf(gasMeter,     capacity);
+        c.elecMeter    = Arrays.copyOf(elecMeter,    capacity);
+        c.gasUsed      = Arrays.copyOf(gasUsed,      capacity);
+        c.elecUsed     = Arrays.copyOf(elecUsed,     capacity);
+        c.gasstanding  = Arrays.copyOf(gasstanding,  capacity);
+        c.gasunitrate  = Arrays.copyOf(gasunitrate,  capacity);
+        c.elecstanding = Arrays.copyOf(elecstanding, capacity);
+        c.elecunitrate = Arrays.copyOf(elecunitrate, capacity);
+        c.gascost      = Arrays.copyOf(gascost,      capacity);
+        c.eleccost     = Arrays.copyOf(eleccost,     capacity);
+        c.totalcost    = Arrays.copyOf(totalcost,    capacity);
+        c.synthetic    = Arrays.copyOf(synthetic,    capacity);
+        return c;
+    }
+
+    /**********************************************************************
+     * Add a day's (real) meter readings on the end of the series; derived
+     * values are left zero. The caller is responsible for keeping days in
+     * order.
+     *
+     * @param epoch day of the readings
+     * @param electricity meter reading
+     * @param gas meter reading
+     */
+
+    public void append(int d, double elec, double gas)
+    {
+        ensureCapacity(size + 1);
+        day[size]       = d;
+        elecMeter[size] = elec;
+        gasMeter[size]  = gas;
+        synthetic[size] = false;
+        clearDerived(size);
+        size++;
+    }
+
+    /**********************************************************************
+     * Insert a day's meter readings at the given index, moving later days
+     * up by one; derived values are left zero.
+     *
+     * @param index at which to insert
+     * @param epoch day of the readings
+     * @param electricity meter reading
+     * @param gas meter reading
+     */
+
+    public void insert(int i, int d, double elec, double gas)
+    {
+        ensureCapacity(size + 1);
+        int n = size - i;
+        System.arraycopy(day,          i, day,          i + 1, n);
+        System.arraycopy(gasMeter,     i, gasMeter,     i + 1, n);
+        System.arraycopy(elecMeter,    i, elecMeter,    i + 1, n);
+        System.arraycopy(gasUsed,      i, gasUsed,      i + 1, n);
+        System.arraycopy(elecUsed,     i, elecUsed,     i + 1, n);
+        System.arraycopy(gasstanding,  i, gasstanding,  i + 1, n);
+        System.arraycopy(gasunitrate,  i, gasunitrate,  i + 1, n);
+        System.arraycopy(elecstanding, i, elecstanding, i + 1, n);
+        System.arraycopy(elecunitrate, i, elecunitrate, i + 1, n);
+        System.arraycopy(gascost,      i, gascost,      i + 1, n);
+        System.arraycopy(eleccost,     i, eleccost,     i + 1, n);
+        System.arraycopy(totalcost,    i, totalcost,    i + 1, n);
+        System.arraycopy(synthetic,    i, synthetic,    i + 1, n);
+        day[i]       = d;
+        elecMeter[i] = elec;
+        gasMeter[i]  = gas;
+        synthetic[i] = false;
+        clearDerived(i);
+        size++;
+    }
+
+    /**********************************************************************
+     * Replace the meter readings held at the given index; derived values
+     * are cleared, as they no longer apply.
+     *
+     * @param index to replace
+     * @param electricity meter reading
+     * @param gas meter reading
+     */
+
+    public void setReadings(int i, double elec, double gas)
+    {
+        elecMeter[i] = elec;
+        gasMeter[i]  = gas;
+        synthetic[i] = false;
+        clearDerived(i);
+    }
+
+    // Zero all the calculated fields for one day
+    private void clearDerived(int i)
+    {
+        gasUsed[i]      = 0.0;
+        elecUsed[i]     = 0.0;
+        gasstanding[i]  = 0.0;
+        gasunitrate[i]  = 0.0;
+        elecstanding[i] = 0.0;
+        elecunitrate[i] = 0.0;
+        gascost[i]      = 0.0;
+        eleccost[i]     = 0.0;
+        totalcost[i]    = 0.0;
+    }
+
+    /**********************************************************************
+     * Return a UtilityField holding one day's data. This is built on
+     * demand from the columns and is a copy - changing its fields does not
+     * change the data held here; store() writes one back.
+     *
+     * @param index of the day wanted
+     * @return UtilityField for that day
+     */
+
+    public UtilityField field(int i)
+    {
+        UtilityField uf = new UtilityField();
+        uf.date         = LocalDate.ofEpochDay(day[i]);
+        uf.gasMeter     = gasMeter[i];
+        uf.elecMeter    = elecMeter[i];
+        uf.gasUsed      = gasUsed[i];
+        uf.elecUsed     = elecUsed[i];
+        uf.gasstanding  = gasstanding[i];
+        uf.gasunitrate  = gasunitrate[i];
+        uf.elecstanding = elecstanding[i];
+        uf.elecunitrate = elecunitrate[i];
+        uf.gascost      = gascost[i];
+        uf.eleccost     = eleccost[i];
+        uf.totalcost    = totalcost[i];
+        return uf;
+    }
+
+    /**********************************************************************
+     * Write a day's values back from a UtilityField - every field but the
+     * date, which the day keeps. The day is no longer synthetic.
+     *
+     * @param index of the day
+     * @param uf, the values
+     */
+
+    public void store(int i, UtilityField uf)
+    {
+        gasMeter[i]     = uf.gasMeter;
+        elecMeter[i]    = uf.elecMeter;
+        gasUsed[i]      = uf.gasUsed;
+        elecUsed[i]     = uf.elecUsed;
+        gasstanding[i]  = uf.gasstanding;
+        gasunitrate[i]  = uf.gasunitrate;
+        elecstanding[i] = uf.elecstanding;
+        elecunitrate[i] = uf.elecunitrate;
+        gascost[i]      = uf.gascost;
+        eleccost[i]     = uf.eleccost;
+        totalcost[i]    = uf.totalcost;
+        synthetic[i]    = false;
+    }
+
+    /**********************************************************************
+     * Return a read-only List view of a range of days. Nothing is copied
+     * up front; each UtilityField is built as it is asked for.
+     *
+     * @param index of the first day in the range
+     * @param number of days in the range
+     * @return List of UtilityField for those days
+     */
+
+    public List<UtilityField> range(int from, int count)
+    {
+        return new AbstractList<UtilityField>()
+            {
+                @Override
+                public UtilityField get(int i)
+                {
+                    if ((i < 0) || (i >= count))
+                    {
+                        throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + count);
+                    }
+                    return field(from + i);
+                }
+
+                @Override
+                public int size()
+                {
+                    return count;
+                }
+            };
+    }
+}
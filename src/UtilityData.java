@@ -8,11 +8,10 @@
  */
 
 import java.time.*;
-import java.time.format.DateTimeFormatter;
-import java.time.temporal.*;
 import java.util.*;
 import java.io.*;
 import java.nio.file.*;
+import java.util.function.IntToLongFunction;
 
 public class UtilityData
 {
@@ -26,40 +25,133 @@ public class UtilityData
     
     // The filename of the rates file.
     static final String RatesFilename = DIRECTORY + "Rates.dat";
+
+    // Size of the buffer each report file is written through
+    static final int REPORTBUFFER = 1 << 16;
     
     //----------------------------------------------------------------------
-    // Instance variable - ArrayList holding rates, implicitly ordered by
-    // date, rates applying most recently added last to the end of the list.
+    // Instance variable - the readings and values derived from them, held
+    // column by column in date order; and the rates that apply to them.
 
-    private ArrayList<UtilityField> utilityReadings;
+    private UtilityColumns columns;
     private RatesData ratesData;
-    
+
+    // Weekly, monthly etc totals; worked out when first needed, and
+    // cleared whenever the data changes
+    private UtilityAggregates aggregates;
+
+    // Running totals for date range queries; made when first needed, and
+    // cleared whenever the data changes other than by adding days
+    private RangeIndex index;
+
+    // Hash of the data the summary reports are written from, and the
+    // record of what the reports were last written from, if any - so that
+    // reports that would come out the same aren't rewritten
+    private Long contentHash;
+    private ReportCache cache;
+
+    // For data made by smoothed(), the smoothing applied; otherwise null
+    private SmoothingEngine.Spec smoothing;
+
+    // Half-hourly consumption the readings were rolled up from, if they
+    // came from a smart meter; otherwise null
+    private IntervalData elecIntervals;
+    private IntervalData gasIntervals;
+
+    // Where the reports go - the data files, and the gnuplot files that
+    // plot them
+    private String outputDirectory = GENDIRECTORY;
+    private String plotDirectory = DIRECTORY;
+
     /**********************************************************************
-     * Constructor for  objects of class UtilityDate - just creates a new
-     * ArrayList internally to hold readings
+     * Constructor for  objects of class UtilityDate - just creates new
+     * empty columns internally to hold readings
+     *
+     * @throws IOException if the rates file can't be read
      */
 
-    public UtilityData()   // Constructor
+    public UtilityData() throws IOException  // Constructor
     {
-        utilityReadings = new ArrayList<>();
+        columns = new UtilityColumns(0);
         ratesData = new RatesData(new File(RatesFilename));
     }
 
     /**********************************************************************
-     * Returns the size of the embedded ArrayList - ie the number of data
-     * entries this UtilityData object currently holds.
+     * Constructor for objects of class UtilityData using rates data that
+     * has already been loaded, rather than reading the rates file.
+     *
+     * @param the rates to apply to readings
+     */
+
+    public UtilityData(RatesData rates)
+    {
+        columns = new UtilityColumns(0);
+        ratesData = rates;
+    }
+
+    // Wrap up a series that has already been calculated
+    UtilityData(UtilityColumns columns, RatesData rates)
+    {
+        this.columns = columns;
+        this.ratesData = rates;
+    }
+
+    /**********************************************************************
+     * Set where the reports are written, in place of the usual
+     * GENDIRECTORY and DIRECTORY. Data made from this by smoothed() writes
+     * to the same places.
+     *
+     * @param output, directory for the data files, ending in '/'
+     * @param plot, directory for the gnuplot files, ending in '/'
+     */
+
+    public void setOutputDirectories(String output, String plot)
+    {
+        outputDirectory = output;
+        plotDirectory = plot;
+    }
+
+    /**********************************************************************
+     * Only write reports that would come out differently from when they
+     * were last written, as recorded by the given cache - see ReportCache.
+     * Data made from this by smoothed() uses the same cache. Save the
+     * cache once the reports have been written.
+     *
+     * @param cache, record of the reports written, or null to write all
+     */
+
+    public void setReportCache(ReportCache cache)
+    {
+        this.cache = cache;
+    }
+
+    // The storage behind this object, and its rates - for the snapshot code
+    UtilityColumns columns()
+    {
+        return columns;
+    }
+
+    RatesData rates()
+    {
+        return ratesData;
+    }
+
+    /**********************************************************************
+     * Returns the number of data entries (days) this UtilityData object
+     * currently holds.
      *
      * @return Returns number of data elements in UtilityData object
      */
 
     public int size()
     {
-        return utilityReadings.size();
+        return columns.size;
     }
-    
+
     /**********************************************************************
      * Getter for UtilityField data at a given index into the internal
-     * ArrayList
+     * columns. The UtilityField is built on demand, and is a copy: changing
+     * it changes nothing here until it is passed to setGasData().
      *
      * @param The index for which data should be returned
      * @return UtilityField object, if present, null if none
@@ -67,15 +159,17 @@ public class UtilityData
 
     public UtilityField getGasData(int i)
     {
-        if (i >= utilityReadings.size())
+        if (i >= columns.size)
         {
             return null;
         }
-        return utilityReadings.get(i);
+        return columns.field(i);
     }
-    
+
     /**********************************************************************
-     * Getter for UtilityField data at a given date
+     * Getter for UtilityField data at a given date - constant time once
+     * the readings have been interpolated, a binary search before that.
+     * As getGasData(int), the UtilityField is a copy.
      *
      * @param The date for which data should be returned
      * @return UtilityField object, if present, null if none
@@ -83,44 +177,65 @@ public class UtilityData
 
     public UtilityField getGasData(LocalDate d)
     {
-        for (int i = 0; i < utilityReadings.size(); i++)
+        int i = indexFromDate(d);
+        if (i < 0)
         {
-            if (utilityReadings.get(i).date == d)
-            {
-                return utilityReadings.get(i);
-            }
-            if (utilityReadings.get(i).date.compareTo(d) > 0)
-            {
-                return null;
-            }
+            return null;
         }
-        return null;
+        return columns.field(i);
     }
-    
+
     /**********************************************************************
-     * Getter for UtilityField data at a given date, plus an increment (0..6)
+     * Getter for UtilityField data for a run of days, starting at a given
+     * date. Returns a view on the data held rather than a copy of the
+     * list, though each entry is built as a copy as it is fetched (see
+     * getGasData(int)); it is cut short if the data runs out first. After
+     * interpolation the entries are consecutive days.
      *
-     * @param d, the date for which data should be returned
-     * @param inc, the increment in days beyond given date
-     * @return UtilityField object, if present, null if none
+     * @param d, the first date for which data should be returned
+     * @param inc, the number of days wanted
+     * @return List of UtilityField objects, null if d not present
      */
 
-    public UtilityField getGasData(LocalDate d, int inc)
+    public List<UtilityField> getGasData(LocalDate d, int inc)
     {
-        if ((inc < 0) || (utilityReadings.size() == 0))
+        int i = indexFromDate(d);
+        if ((inc < 0) || (i < 0))
         {
             return null;
         }
-        
-        long days = ChronoUnit.DAYS.between(utilityReadings.get(0).date, d);
-        System.out.printf("Days between %s and %s = %d\n", d, utilityReadings.get(0).date, days);
-        return null;
+        return columns.range(i, Math.min(inc, columns.size - i));
     }
-    
+
+    /**********************************************************************
+     * Write back a UtilityField got from getGasData(), changed - all its
+     * values replace those held for its date, as they are; nothing is
+     * recalculated. Use addUtilityReading() to change just the readings
+     * and recalculate from them.
+     *
+     * @param uf, the day's values
+     * @return true if there is a day for uf.date to write to
+     */
+
+    public boolean setGasData(UtilityField uf)
+    {
+        int i = indexFromDate(uf.date);
+        if (i < 0)
+        {
+            return false;
+        }
+        columns.store(i, uf);
+        aggregates = null;
+        index = null;
+        contentHash = null;
+        return true;
+    }
+
     /**********************************************************************
-     * Add a gas/electricity meter reading for given date; first cut just
-     * appends this entry on the end of the array. Better would be to order
-     * by date...
+     * Add a gas/electricity meter reading for given date. The entry is
+     * placed in date order by a binary search of the readings already held;
+     * if there is already a reading for that date it is replaced, so the
+     * most recently added reading for any one date wins.
      *
      * @param LocalDate this reading on
      * @param double electricity meter reading
@@ -129,58 +244,313 @@ public class UtilityData
 
     public void addUtilityReading(LocalDate d, double elecMeter, double gasMeter)
     {
-        UtilityField uf = new UtilityField();
-        uf.date = d;
-        uf.gasMeter = gasMeter;
-        uf.elecMeter = elecMeter;
-        utilityReadings.add(uf);
+        aggregates = null;
+        index = null;
+        contentHash = null;
+        int day = (int) d.toEpochDay();
+        int i = Arrays.binarySearch(columns.day, 0, columns.size, day);
+        if (i >= 0)
+        {
+            columns.setReadings(i, elecMeter, gasMeter);		// Same date - replace
+        }
+        else
+        {
+            columns.insert(-(i + 1), day, elecMeter, gasMeter);	// At the insertion point
+        }
+    }
+
+    /**********************************************************************
+     * Set one or more readings to be stored in the internal columns,
+     * potentially integrating those with already present - so storing in
+     * date order, and doing some kind of sanity checking if two readings
+     * with the same date are read in.
+     *
+     * @param A file object from which to read data
+     * @throws IOException if a file can't be read
+     */
 
-        Collections.sort(utilityReadings);	// Make sure the entries are date sorted
+    public void setReadingsFromFile(File f) throws IOException
+    {
+        setReadingsFromFiles(f);
     }
-    
+
+    /**********************************************************************
+     * Bulk version of setReadingsFromFile - each file is read into its own
+     * date sorted run, and the runs are then combined with the readings
+     * already held in a single k-way merge, rather than sorting after every
+     * reading. Where there is more than one reading for the same date:
+     *
+     *   - within a single file, the later line in the file wins;
+     *   - between sources, the later file in the argument list wins, and
+     *     readings already held count as coming before all the files.
+     *
+     * So passing the historic file first and the Dropbox file second means
+     * the more recent Dropbox readings supersede any overlap. A warning is
+     * printed when overlapping readings actually disagree.
+     *
+     * @param Files to read data from, oldest source first
+     * @throws IOException if a file can't be read
+     */
+
+    public void setReadingsFromFiles(File... files) throws IOException
+    {
+        ArrayList<Run> runs = new ArrayList<>();
+
+        runs.add(new Run("existing readings", columns.day, columns.elecMeter,
+                         columns.gasMeter, columns.size));
+        for (File f : files)
+        {
+            runs.add(readingsRunFromFile(f));
+        }
+        columns = mergeRuns(runs);
+        aggregates = null;
+        index = null;
+        contentHash = null;
+    }
+
+    //----------------------------------------------------------------------
+    // One date sorted, duplicate free run of readings to be merged
+
+    private static class Run
+    {
+        String name;
+        int[] days;
+        double[] elec;
+        double[] gas;
+        int count;
+
+        Run(String name, int[] days, double[] elec, double[] gas, int count)
+        {
+            this.name  = name;
+            this.days  = days;
+            this.elec  = elec;
+            this.gas   = gas;
+            this.count = count;
+        }
+    }
+
     /**********************************************************************
-     * Set one or more readings to be stored in the internal  utilityReadings
-     * ArrayList, potentially integrating those with already present - so
-     * storing in date order, and doing some kind of sanity checking if two
-     * readings with the same date are read in.
+     * Read all the readings from one file into a date sorted run, with no
+     * duplicate dates (later lines win). Files are normally already in date
+     * order, in which case no sort is needed.
      *
      * @param A file object from which to read data
+     * @return Run of readings, date sorted
+     * @throws IOException if the file can't be read
      */
 
-    public void setReadingsFromFile(File f)
+    private Run readingsRunFromFile(File f) throws IOException
     {
-        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("dd/MM/yyyy");
-        try (Scanner sc = new Scanner(f))
+        Stages.Stage stage = Stages.start("parse:" + f.getName());
+        ReadingsParser.Result r;
+        try
+        {
+            r = ReadingsParser.parse(f, 2);	// Electric then gas reading
+        }
+        catch (NoSuchFileException | FileNotFoundException e)
+        {
+            throw new FileNotFoundException(f.getName() + " file not found");
+        }
+        catch (IOException e)
         {
-            while (sc.hasNextLine())
+            throw new IOException("Unable to read " + f.getName() + ": " + e.getMessage(), e);
+        }
+        for (String error : r.errors)
+        {
+            System.out.println("WARNING: skipping malformed line " + error);
+        }
+        Run run = sortedRun(new Run(f.getName(), r.days, r.values[0], r.values[1], r.count));
+        stage.end(r.count);
+        return run;
+    }
+
+    /**********************************************************************
+     * Put a run of readings in file order into date order, with no
+     * duplicate dates (later readings win). Readings are normally already
+     * in date order, in which case no sort is needed.
+     *
+     * @param run, readings in the order read; its arrays may be reused
+     * @return Run of readings, date sorted
+     */
+
+    private static Run sortedRun(Run run)
+    {
+        boolean sorted = true;
+        for (int i = 1; i < run.count; i++)
+        {
+            if (run.days[i-1] > run.days[i])
             {
-                String line = sc.nextLine();
-                if (line.startsWith("#"))
-                {
-                    continue;	// Skip past comment lines
-                }
-                if (line.length() >= 10)
+                sorted = false;
+                break;
+            }
+        }
+        if (! sorted)
+        {
+            // Sort line numbers by date - stable, so later lines stay later
+            Integer[] order = new Integer[run.count];
+            for (int i = 0; i < run.count; i++)
+            {
+                order[i] = i;
+            }
+            int[] days = run.days;
+            double[] elec = run.elec, gas = run.gas;
+            Arrays.sort(order, (a, b) -> Integer.compare(days[a], days[b]));
+
+            run.days = new int[run.count];
+            run.elec = new double[run.count];
+            run.gas  = new double[run.count];
+            for (int i = 0; i < run.count; i++)
+            {
+                run.days[i] = days[order[i]];
+                run.elec[i] = elec[order[i]];
+                run.gas[i]  = gas[order[i]];
+            }
+        }
+
+        //------------------------------------------------------------------
+        // Drop duplicate dates within the run, keeping the last of each
+
+        int n = 0;
+        for (int i = 0; i < run.count; i++)
+        {
+            if ((n > 0) && (run.days[n-1] == run.days[i]))
+            {
+                n--;
+            }
+            run.days[n] = run.days[i];
+            run.elec[n] = run.elec[i];
+            run.gas[n]  = run.gas[i];
+            n++;
+        }
+        run.count = n;
+        return run;
+    }
+
+    /**********************************************************************
+     * Merge a number of date sorted, duplicate free runs of readings into
+     * new columns in one pass, using a priority queue keyed on (date, run
+     * number). On a date clash the reading from the higher numbered run
+     * wins.
+     *
+     * @param runs, the runs to merge, lowest priority first
+     * @return merged readings
+     */
+
+    private static UtilityColumns mergeRuns(ArrayList<Run> runs)
+    {
+        int total = 0;
+        for (Run run : runs)
+        {
+            total += run.count;
+        }
+        UtilityColumns merged = new UtilityColumns(total);
+
+        // Each queue entry is { run number, position in that run }
+        PriorityQueue<int[]> queue = new PriorityQueue<>(Math.max(1, runs.size()), (a, b) ->
+            {
+                int c = Integer.compare(runs.get(a[0]).days[a[1]], runs.get(b[0]).days[b[1]]);
+                return (c != 0) ? c : Integer.compare(a[0], b[0]);
+            });
+        for (int r = 0; r < runs.size(); r++)
+        {
+            if (runs.get(r).count > 0)
+            {
+                queue.add(new int[] { r, 0 });
+            }
+        }
+        int lastRun = -1;
+        while (! queue.isEmpty())
+        {
+            int[] head = queue.poll();
+            Run run = runs.get(head[0]);
+            int i = head[1];
+            int last = merged.size - 1;
+
+            if ((last >= 0) && (merged.day[last] == run.days[i]))
+            {
+                if ((merged.elecMeter[last] != run.elec[i]) || (merged.gasMeter[last] != run.gas[i]))
                 {
-                    String dateString = line.substring(0,10);
-                    LocalDate d = LocalDate.parse(dateString, formatter);
-                    try (Scanner scl = new Scanner(line.substring(10)))
-                    {
-                        this.addUtilityReading(d, scl.nextDouble(),scl.nextDouble());
-                        scl.close();
-                    }
-                    catch (NoSuchElementException e)
-                    {
-                        // Do nothing - just skip over
-                    }
+                    System.out.printf("WARNING: readings for %s differ between %s and %s; using %s\n",
+                                      LocalDate.ofEpochDay(run.days[i]), runs.get(lastRun).name,
+                                      run.name, run.name);
                 }
+                merged.setReadings(last, run.elec[i], run.gas[i]);	// Higher numbered run wins
+            }
+            else
+            {
+                merged.append(run.days[i], run.elec[i], run.gas[i]);
+            }
+            lastRun = head[0];
+
+            if (++head[1] < run.count)
+            {
+                queue.add(head);
             }
-            sc.close();
         }
-        catch (FileNotFoundException e)
+        return merged;
+    }
+
+    /**********************************************************************
+     * Set the readings from smart meter half-hourly consumption, replacing
+     * any held. Each day's meter readings are the starting readings plus
+     * all the consumption up to the end of that day; calculateDailyCosts()
+     * then takes each day's usage straight from the day's interval total,
+     * so the daily series is exactly the sum of the half hours. A day
+     * missing from one fuel's data counts as no usage of that fuel, and
+     * the days missing from both, once filled in by interpolateReadings(),
+     * as no usage of either - so the totals are always just what the half
+     * hours add up to.
+     *
+     * @param elec, half-hourly electricity consumption (kWh)
+     * @param gas, half-hourly gas consumption (m3)
+     * @param elecStart, electricity meter reading before the first day
+     * @param gasStart, gas meter reading before the first day
+     */
+
+    public void setReadingsFromIntervals(IntervalData elec, IntervalData gas,
+                                         double elecStart, double gasStart)
+    {
+        UtilityColumns c = new UtilityColumns(Math.max(elec.size, gas.size));
+        double elecMeter = elecStart, gasMeter = gasStart;
+        int i = 0, j = 0;
+        while ((i < elec.size) || (j < gas.size))
         {
-            System.out.println(f.getName() + " file not found");
-            System.exit(0);
+            int e = (i < elec.size) ? elec.day[i] : Integer.MAX_VALUE;
+            int g = (j < gas.size)  ? gas.day[j]  : Integer.MAX_VALUE;
+            int d = Math.min(e, g);
+            if (e == d)
+            {
+                elecMeter += elec.total[i++];
+            }
+            if (g == d)
+            {
+                gasMeter += gas.total[j++];
+            }
+            c.append(d, elecMeter, gasMeter);
         }
+        columns = c;
+        elecIntervals = elec;
+        gasIntervals = gas;
+        aggregates = null;
+        index = null;
+        contentHash = null;
+    }
+
+    /**********************************************************************
+     * Returns the half-hourly data the readings were rolled up from, for
+     * intraday figures such as IntervalData.loadProfile()
+     *
+     * @return the interval data, or null if readings didn't come from it
+     */
+
+    public IntervalData getElecIntervals()
+    {
+        return elecIntervals;
+    }
+
+    public IntervalData getGasIntervals()
+    {
+        return gasIntervals;
     }
 
     /**********************************************************************
@@ -190,47 +560,79 @@ public class UtilityData
      * not 30 future days, is over all the remaining days. Has the effect
      * that the last "average" value is the same as the last value...
      */
-   
+
     public void setReadingsFromExisting(UtilityData u)
     {
-        int i = 0, j = 0, span = 0;
         if (u.size() == 0)
         {
             return;
         }
-        for (i = 0; i < u.size(); i++)
+        columns = SmoothingEngine.smooth(u.columns,
+            new SmoothingEngine.Spec(SmoothingEngine.MONTH, SmoothingEngine.Kernel.LEADING))[0];
+        aggregates = null;
+        index = null;
+        contentHash = null;
+    }
+
+    /**********************************************************************
+     * Produce any number of smoothed copies of this data in a single pass
+     * - see SmoothingEngine for the windows and kernels available. The
+     * copies share this object's rates data.
+     *
+     * @param specs, the smoothed series wanted
+     * @return one new UtilityData per spec, in the same order
+     */
+
+    public UtilityData[] smoothed(SmoothingEngine.Spec... specs)
+    {
+        Stages.Stage stage = Stages.start("smooth");
+        UtilityColumns[] smooth = SmoothingEngine.smooth(columns, specs);
+        UtilityData[] result = new UtilityData[smooth.length];
+        for (int i = 0; i < smooth.length; i++)
         {
-            double avgGasCostTotal = 0.0, avgElecCostTotal = 0.0, avgTotalCostTotal = 0.0;
-            span = ( (i + 30) <= u.size() ) ? 30 : u.size() - i;
-            // System.out.printf("i = %3d; span = %3d  u.size() = %3d\n", i, span, u.size());
+            result[i] = new UtilityData(smooth[i], ratesData);
+            result[i].smoothing = specs[i];
+            result[i].setOutputDirectories(outputDirectory, plotDirectory);
+            result[i].cache = cache;
+        }
+        stage.end((long) columns.size * specs.length);
+        return result;
+    }
 
-            for (j = i; j < (i + span); j++)
-            {
-                UtilityField uf = u.getGasData(j);
-                avgGasCostTotal   += uf.gascost;
-                avgElecCostTotal  += uf.eleccost;
-                avgTotalCostTotal += uf.totalcost;
-            }
-            UtilityField uf = new UtilityField();
-            uf.date         = u.getGasData(i).date;
-            uf.gasMeter     = u.getGasData(i).gasMeter;
-            uf.elecMeter    = u.getGasData(i).elecMeter;
-            uf.gasUsed      = u.getGasData(i).gasUsed;
-            uf.elecUsed     = u.getGasData(i).elecUsed;
-            uf.gasstanding  = u.getGasData(i).gasstanding;
-            uf.gasunitrate  = u.getGasData(i).gasunitrate;
-            uf.elecstanding = u.getGasData(i).elecstanding;
-            uf.elecunitrate = u.getGasData(i).elecunitrate;
-            
-            uf.gascost      = avgGasCostTotal   / span;
-            uf.eleccost     = avgElecCostTotal  / span;
-            uf.totalcost    = avgTotalCostTotal / span;
-            
-            utilityReadings.add(uf);
-            Collections.sort(utilityReadings);	// Make sure the entries are date sorted
+    /**********************************************************************
+     * Bring data made by smoothed() up to date after an incremental update
+     * to its source, recalculating only the smoothed days the new data
+     * reaches (and adjusting the aggregates by the difference).
+     *
+     * @param source, the data this was smoothed from
+     * @param from, index of first changed day, as returned by appendReadings
+     */
+
+    public void updateSmoothed(UtilityData source, int from)
+    {
+        if (smoothing == null)
+        {
+            throw new IllegalStateException("Not smoothed data");
+        }
+        Stages.Stage stage = Stages.start("smooth");
+        int first = Math.min(SmoothingEngine.firstAffected(smoothing, from), columns.size);
+        if (aggregates != null)
+        {
+            aggregates.retract(columns, first);
         }
+        SmoothingEngine.update(source.columns, columns, smoothing, from);
+        if (aggregates != null)
+        {
+            aggregates.extend(columns, first);
+        }
+        if (index != null)
+        {
+            index.update(columns, first);
+        }
+        contentHash = null;
+        stage.end(columns.size - first);
     }
-    
+
     /**********************************************************************
      * Print out all of the meter readings currently held in this object
      * to the standard output
@@ -238,335 +640,567 @@ public class UtilityData
 
     public void printUtilityReadings()
     {
-        for (int i = 0; i < utilityReadings.size(); i++)
+        for (int i = 0; i < columns.size; i++)
         {
-            UtilityField uf = utilityReadings.get(i);
-            System.out.printf("%3d %s %8.3f %8.3f\n", i,
-                              uf.date, uf.gasMeter, uf.elecMeter);
+            System.out.printf("%3d %s %8.3f %8.3f\n", i, LocalDate.ofEpochDay(columns.day[i]),
+                              columns.gasMeter[i], columns.elecMeter[i]);
         }
     }
 
+    /**********************************************************************
+     * Open a report file for writing through a large buffer, so lines
+     * printed to it are written to the file in big blocks rather than one
+     * by one. See ReportWriter for building lines without printf().
+     *
+     * @param path, of the file
+     * @return stream to print the report to; close it when done
+     * @throws FileNotFoundException if the file can't be opened
+     */
+
+    static ReportWriter openReport(String path) throws FileNotFoundException
+    {
+        return new ReportWriter(path);
+    }
+
+    // As openReport(path), but optionally adding to the end of the file
+    static ReportWriter openReport(String path, boolean append) throws FileNotFoundException
+    {
+        return new ReportWriter(path, append);
+    }
+
+    // A PrintStream doesn't throw when a write fails, just remembers it;
+    // check before closing a report so the failure isn't lost
+    static boolean checkReport(PrintStream stream, String filename)
+    {
+        if (stream.checkError())
+        {
+            System.out.printf("Error writing '%s'\n", filename);
+            return false;
+        }
+        return true;
+    }
+
+    // Hash of everything the summary reports are written from - all the
+    // days - worked out once each time the data changes
+    private synchronized long contentHash()
+    {
+        if (contentHash == null)
+        {
+            contentHash = ReportCache.hash(columns, 0, columns.size);
+        }
+        return contentHash;
+    }
+
+    // True if a report is already as it would be written from data with
+    // this hash, so needn't be written again
+    private boolean upToDate(String filename, long hash)
+    {
+        return (cache != null) && cache.unchanged(new File(outputDirectory + filename), hash);
+    }
+
+    // Note that a report, now closed, was written from data with this hash
+    private void written(String filename, long hash)
+    {
+        written(filename, hash, 0);
+    }
+
+    private void written(String filename, long hash, int rows)
+    {
+        if (cache != null)
+        {
+            cache.record(new File(outputDirectory + filename), hash, rows);
+        }
+    }
+
+    // The rows at the start of a report of a row per day that are already
+    // as they would be written, so only the rows after them need adding;
+    // 0 if it must be written afresh. See ReportCache.rowsUnchanged().
+    private int rowsUnchanged(String filename, int rows, IntToLongFunction prefix)
+    {
+        return (cache == null) ? 0 : cache.rowsUnchanged(new File(outputDirectory + filename), rows, prefix);
+    }
+
+    //----------------------------------------------------------------------
+    // The report headers and lines - shared with StreamingPipeline, which
+    // writes the same reports a block of days at a time
+
+    static final String DAILYHEADER =
+        "#   Date          Gas Electric  Total\n" +
+        "#------------------------------------------\n";
+    static final String WEEKLYHEADER =
+        "# Wk  Date    S     Gas Use    £Gas   Elec Use    £Elec    £Total\n" +
+        "#-------------------------------------------------------------------\n";
+    static final String DAYSOFWEEKHEADER =
+        "#   Gas Used  Elec Used     £Gas    £Elec   £Total\n" +
+        "#------------------------------------------------------\n";
+    static final String MONTHLYHEADER =
+        "# Month   Gas Used  Elec Used    £Gas   £Elec  £Total\n" +
+        "#-------------------------------------------------------\n";
+
+    // Day i of the columns, numbered n
+    static void dailyLine(ReportWriter stream, int n, UtilityColumns c, int i)
+    {
+        stream.integer(n, 3).put(' ').date(c.day[i]).put(' ')
+              .fixed(c.gascost[i], 6, 2).put(' ')
+              .fixed(c.eleccost[i], 8, 2).put(' ')
+              .fixed(c.totalcost[i], 6, 2).endLine();
+    }
+
+    // Bucket b of a weekly rollup, numbered 'week', starting on 'startDay'
+    static void weeklyLine(ReportWriter stream, int week, int startDay, UtilityAggregates.Rollup w, int b)
+    {
+        stream.integer(week, 2).put(' ').date(startDay).put(' ')
+              .integer(w.days[b], 1).put(' ')
+              .fixed(w.gasUsed[b], 10, 3).put(' ').fixed(w.gasCost[b], 8, 3).put(' ')
+              .fixed(w.elecUsed[b], 10, 3).put(' ').fixed(w.elecCost[b], 8, 3).put(' ')
+              .fixed(w.totalCost[b], 9, 3).endLine();
+    }
+
+    // The daily averages in bucket b of a day of week or month of year rollup
+    static void averageLine(ReportWriter stream, UtilityAggregates.Rollup r, int b, int width)
+    {
+        stream.integer(b, width).put(' ')
+              .fixed(r.gasUsed[b]   / r.days[b], 10, 3).put(' ')
+              .fixed(r.elecUsed[b]  / r.days[b], 10, 3).put(' ')
+              .fixed(r.gasCost[b]   / r.days[b],  8, 2).put(' ')
+              .fixed(r.elecCost[b]  / r.days[b],  8, 2).put(' ')
+              .fixed(r.totalCost[b] / r.days[b],  8, 2).endLine();
+    }
+
+    // Bucket b of a monthly rollup
+    static void monthlyLine(ReportWriter stream, UtilityAggregates.Rollup m, int b)
+    {
+        stream.zeroPadded(m.key[b] % 100, 2).put('-').zeroPadded(m.key[b] / 100, 4).put(' ')
+              .fixed(m.gasUsed[b], 10, 3).put(' ').fixed(m.elecUsed[b], 10, 3).put(' ')
+              .fixed(m.gasCost[b], 7, 2).put(' ').fixed(m.elecCost[b], 7, 2).put(' ')
+              .fixed(m.totalCost[b], 7, 2).endLine();
+    }
+
+    static void yearHeader(ReportWriter stream, int year)
+    {
+        stream.printf("# Costs and Usage for %d, against day of the year\n" +
+                      "#\n" +
+                      "# Day Gas Used  Elec Used   £Gas   £Elec £Total\n" +
+                      "#-----------------------------------------------\n", year);
+    }
+
+    // Day i of the columns, against its day of the year
+    static void yearLine(ReportWriter stream, int firstOfYear, UtilityColumns c, int i)
+    {
+        stream.integer(c.day[i] - firstOfYear, 3).put(' ')
+              .fixed(c.gasUsed[i], 10, 3).put(' ').fixed(c.elecUsed[i], 10, 3).put(' ')
+              .fixed(c.gascost[i], 6, 2).put(' ').fixed(c.eleccost[i], 6, 2).put(' ')
+              .fixed(c.totalcost[i], 6, 2).endLine();
+    }
+
     /**********************************************************************
      * Print out all of the computed costs for data held in this object to
      * file from which these can be plotted
+     *
+     * @return the number of rows written - 0 if the file was already up
+     *         to date
      */
 
-    public void printUtilityCosts(String filename)
+    public int printUtilityCosts(String filename)
     {
-        try
+        long hash = contentHash();
+        if (upToDate(filename, hash))
         {
-            PrintStream stream = new PrintStream(GENDIRECTORY + filename);
-
-            stream.printf("#   Date          Gas Electric  Total\n" +
-                          "#------------------------------------------\n");
+            return 0;
+        }
+        // Usually the days already written are unchanged, and only the new
+        // days need adding to the end
+        int keep = rowsUnchanged(filename, columns.size, n -> ReportCache.hash(columns, 0, n));
+        boolean ok = false;
+        try (ReportWriter stream = openReport(outputDirectory + filename, keep > 0))
+        {
+            if (keep == 0)
+            {
+                stream.print(DAILYHEADER);
+            }
             
-            for (int i = 0; i < utilityReadings.size(); i++)
+            for (int i = keep; i < columns.size; i++)
             {
-                UtilityField uf = utilityReadings.get(i);
-                stream.printf("%3d %s %6.2f %8.2f %6.2f\n", i,
-                              uf.date, uf.gascost, uf.eleccost, uf.totalcost);
+                dailyLine(stream, i, columns, i);
             }
-            stream.close();
+            ok = checkReport(stream, filename);
         }
         catch (FileNotFoundException e)
         {
             // Print an error message, but otherwise do nothing
             System.out.printf("Unable to open '%s' for writing\n", filename);
         }
+        if (! ok)
+        {
+            return 0;
+        }
+        written(filename, hash, columns.size);
+        return columns.size - keep;
+    }
+
+    /**********************************************************************
+     * Returns the weekly, monthly etc totals for the data held, working
+     * them all out in one pass the first time they are asked for after
+     * the data changes.
+     *
+     * @return the aggregates for this data
+     */
+
+    public UtilityAggregates aggregates()
+    {
+        if (aggregates == null)
+        {
+            aggregates = new UtilityAggregates(columns);
+        }
+        return aggregates;
+    }
+
+    /**********************************************************************
+     * Returns running totals of the usage and costs, from which the totals
+     * between any two days can be had in constant time - see totals().
+     * Made the first time it is asked for after the data changes, and
+     * kept up to date as days are appended.
+     *
+     * @return the index for this data
+     */
+
+    public RangeIndex rangeIndex()
+    {
+        if (index == null)
+        {
+            index = new RangeIndex.Prefix(columns);
+        }
+        return index;
+    }
+
+    /**********************************************************************
+     * Work out the usage and cost totals between two dates, inclusive -
+     * for example over a billing period - without going through the days
+     * in between. Dates outside the data held are ignored.
+     *
+     * @param from, first date
+     * @param to, last date
+     * @return the totals, and number of days they cover
+     */
+
+    public RangeIndex.Totals totals(LocalDate from, LocalDate to)
+    {
+        int first = Arrays.binarySearch(columns.day, 0, columns.size, (int) from.toEpochDay());
+        int last  = Arrays.binarySearch(columns.day, 0, columns.size, (int) to.toEpochDay());
+        first = (first >= 0) ? first : -first - 1;	// First day on or after 'from'
+        last  = (last  >= 0) ? last  : -last - 2;	// Last day on or before 'to'
+        return rangeIndex().totals(first, last);
     }
 
     /**********************************************************************
      * Output meter data (usage, cost) for whole weeks. Any initial partial
      * week is ignored. Full weeks are output, and the last (possibly
-     * partial) week is output. This depends on every day in the ArrayList
+     * partial) week is output. This depends on every day in the columns
      * being filled in (ie after successful interpolation). Output goes to
      * file.
+     *
+     * @return the number of rows written - 0 if the file was already up
+     *         to date
      */
 
-    public void printWeeklyReadings(String filename)
+    public int printWeeklyReadings(String filename)
     {
-        try
+        long hash = contentHash();
+        if (upToDate(filename, hash))
         {
-            PrintStream stream = new PrintStream(GENDIRECTORY + filename);
-
-            if (utilityReadings.size() == 0)
+            return 0;
+        }
+        boolean ok = false;
+        int WeekCount = 0;
+        try (ReportWriter stream = openReport(outputDirectory + filename))
+        {
+            if (columns.size == 0)
             {
                 System.out.println("WARNING: no utility data present\n");
-                return;
+                return 0;
             }
-            UtilityField uf0 = utilityReadings.get(0);
-            int DoW = uf0.date.getDayOfWeek().getValue(); // 1 = Monday, 7 = Sunday
-
-            int FirstFullWeek = 7 - (DoW - 1);	// Index in ArrayList where first full week starts
-            int WeekCount = 0;
-            stream.printf("# Wk  Date    S     Gas Use    £Gas   Elec Use    £Elec    £Total\n" +
-                          "#-------------------------------------------------------------------\n");
-            for (int i = FirstFullWeek; i < utilityReadings.size(); i += 7)
+            UtilityAggregates.Rollup w = aggregates().weekly;
+
+            stream.print(WEEKLYHEADER);
+            for (int b = 1; b < w.count; b++)	// Bucket 0 is the first, skipped, week
             {
-                int span = 7;
-                if ((i + 7) >= utilityReadings.size())
-                {
-                    span = utilityReadings.size() - i;
-                }
-                double gcost = 0.0, ecost = 0.0, tcost = 0.0, gused = 0.0, eused = 0.0;
-                for (int j = 0; j < span; j++)
-                {
-                    gcost += utilityReadings.get(i+j).gascost;
-                    ecost += utilityReadings.get(i+j).eleccost;
-                    tcost += utilityReadings.get(i+j).totalcost;
-                    gused += utilityReadings.get(i+j).gasUsed;
-                    eused += utilityReadings.get(i+j).elecUsed;
-                }
-                
-                stream.printf("%2d %s %d %10.3f %8.3f %10.3f %8.3f %9.3f\n",
-                              WeekCount++, utilityReadings.get(i).date, span,
-                              gused, gcost, eused, ecost, tcost);
+                weeklyLine(stream, WeekCount++, columns.day[w.start[b]], w, b);
             }
-            stream.close();
+            ok = checkReport(stream, filename);
         }
         catch (FileNotFoundException e)
         {
             // Print an error message, but otherwise do nothing
             System.out.printf("Unable to open '%s' for writing\n", filename);
         }
+        if (! ok)
+        {
+            return 0;
+        }
+        written(filename, hash);
+        return WeekCount;
     }
 
     /**********************************************************************
      * Print to file the per day (Mon/Tue/Wed/...) daily usage and costs,
-     * so can plot on which days we use most/least energy. Need to calculate
-     * the information before we can output it.
+     * so can plot on which days we use most/least energy. Only days after
+     * we moved in are counted - see UtilityAggregates.
      *
+     * @return the number of rows written - 0 if the file was already up
+     *         to date
      */
 
-    public void printPerDayReadings(String filename)
+    public int printPerDayReadings(String filename)
     {
-	// Usage on each day of week (1..7); not all fields populated
-        UtilityField DailyUsage[] = new UtilityField[8];
-        // Number of days of data collected for each day of week (1..7)
-        int NumDays[] = new int[8];
-        for (int i = 1; i <=7; i++)
-        {
-            DailyUsage[i] = new UtilityField();
-            DailyUsage[i].gasUsed   = 0.0;	// Other unused fields
-            DailyUsage[i].elecUsed  = 0.0;	// left unset...
-            DailyUsage[i].gascost   = 0.0;
-            DailyUsage[i].eleccost  = 0.0;
-            DailyUsage[i].totalcost = 0.0;
-            NumDays[i] = 0;
-        }
-        
-	// Around when we moved in, after dehumidifiers stopped, so electricity usage
-        // should be coming down.
-        LocalDate d = LocalDate.of(2022, 8, 1);
-        for (int i = 0; i < utilityReadings.size(); i++)
+        long hash = contentHash();
+        if (upToDate(filename, hash))
         {
-            UtilityField uf = utilityReadings.get(i);
-            if (uf.date.compareTo(d) > 0)	// After 1st August, so more normal usage!
-            {
-                int DoW = uf.date.getDayOfWeek().getValue(); // 1 = Monday, 7 = Sunday
-                
-                NumDays[DoW]++;
-                DailyUsage[DoW].gasUsed   += uf.gasUsed;
-                DailyUsage[DoW].elecUsed  += uf.elecUsed;
-                DailyUsage[DoW].gascost   += uf.gascost;
-                DailyUsage[DoW].eleccost  += uf.eleccost;
-                DailyUsage[DoW].totalcost += uf.totalcost;
-            }
+            return 0;
         }
-        try
+        boolean ok = false;
+        UtilityAggregates.Rollup dow = aggregates().dayOfWeek;
+        try (ReportWriter stream = openReport(outputDirectory + filename))
         {
-            PrintStream stream = new PrintStream(GENDIRECTORY + filename);
-
-            stream.printf("#   Gas Used  Elec Used     £Gas    £Elec   £Total\n" +
-                          "#------------------------------------------------------\n");
+            stream.print(DAYSOFWEEKHEADER);
             for (int i = 1; i <=7; i++)
             {
-                stream.printf("%d %10.3f %10.3f %8.2f %8.2f %8.2f\n", i,
-                              DailyUsage[i].gasUsed   / NumDays[i],
-                              DailyUsage[i].elecUsed  / NumDays[i],
-                              DailyUsage[i].gascost   / NumDays[i],
-                              DailyUsage[i].eleccost  / NumDays[i],
-                              DailyUsage[i].totalcost / NumDays[i]);
+                averageLine(stream, dow, i, 1);
             }
-            stream.close();
+            ok = checkReport(stream, filename);
         }
         catch (FileNotFoundException e)
         {
             // Print an error message, but otherwise do nothing
             System.out.printf("Unable to open '%s' for writing\n", filename);
         }
+        if (! ok)
+        {
+            return 0;
+        }
+        written(filename, hash);
+        return 7;
     }
 
     /**********************************************************************
-     * Print to file the monthly usage and costs data, so we can plot. Have
-     * to compute them on the fly
+     * Print to file the monthly usage and costs data, so we can plot.
+     *
+     * @return the number of rows written - 0 if the file was already up
+     *         to date
      */
 
-    public void printMonthlyReadings(String filename)
+    public int printMonthlyReadings(String filename)
     {
-        int year, month;
-        double gasUsed = 0.0, elecUsed = 0.0, gasCost = 0.0, elecCost = 0.0, totalCost = 0.0;
-        UtilityField uf = null;
-
-        try
+        long hash = contentHash();
+        if (upToDate(filename, hash))
         {
-            PrintStream stream = new PrintStream(GENDIRECTORY + filename);
-            stream.printf("# Month   Gas Used  Elec Used    £Gas   £Elec  £Total\n" +
-                          "#-------------------------------------------------------\n");
-            
-            for (int i = 0; i < utilityReadings.size(); i++)
+            return 0;
+        }
+        boolean ok = false;
+        UtilityAggregates.Rollup m = aggregates().monthly;
+        try (ReportWriter stream = openReport(outputDirectory + filename))
+        {
+            stream.print(MONTHLYHEADER);
+
+            for (int b = 0; b < m.count; b++)
             {
-                uf = utilityReadings.get(i);
-                if ((uf.date.getDayOfMonth() == 1) && (i > 0))
-                {
-                    int m = uf.date.getMonthValue() - 1;
-                    int y = uf.date.getYear();
-                    if (m == 0)
-                    {
-                        y--;
-                        m = 12;
-                    }
-                    
-                    stream.printf("%02d-%04d %10.3f %10.3f %7.2f %7.2f %7.2f\n", m, y,
-                                  gasUsed, elecUsed, gasCost, elecCost, totalCost);
-                    gasUsed   = 0.0;
-                    elecUsed  = 0.0;
-                    gasCost   = 0.0;
-                    elecCost  = 0.0;
-                    totalCost = 0.0;
-                }
-                gasUsed   += uf.gasUsed;
-                elecUsed  += uf.elecUsed;
-                gasCost   += uf.gascost;
-                elecCost  += uf.eleccost;
-                totalCost += uf.totalcost;
+                monthlyLine(stream, m, b);
             }
-            stream.printf("%02d-%04d %10.3f %10.3f %7.2f %7.2f %7.2f\n",
-                          uf.date.getMonthValue(), uf.date.getYear(),
-                          gasUsed, elecUsed, gasCost, elecCost, totalCost);
-            stream.close();
+            ok = checkReport(stream, filename);
         }
         catch (FileNotFoundException e)
         {
             // Print an error message, but otherwise do nothing
             System.out.println("Unable to open 'Monthly.dat' for writing");
         }
+        if (! ok)
+        {
+            return 0;
+        }
+        written(filename, hash);
+        return m.count;
     }
 
     /**********************************************************************
      * Print to file for plotting the per-month costs so can plot in
-     * which months we use most/least energy. Need to calculate the
-     * information before we can output it.
-     */
-
-    public void printPerMonthReadings()
-    {
-	// Usage on each month of the year (1..12); not all fields populated
-        UtilityField MonthlyUsage[] = new UtilityField[13];
-        // Number of months of data collected for each month (1..12)
-        int NumMonths[] = new int[13];
-        for (int i = 1; i <=7; i++)
-        {
-            MonthlyUsage[i] = new UtilityField();
-            MonthlyUsage[i].gasUsed   = 0.0;	// Other unused fields
-            MonthlyUsage[i].elecUsed  = 0.0;	// left unset...
-            MonthlyUsage[i].gascost   = 0.0;
-            MonthlyUsage[i].eleccost  = 0.0;
-            MonthlyUsage[i].totalcost = 0.0;
-            NumMonths[i] = 0;
-        }
-        
-	// Around when we moved in, after dehumidifiers stopped, so electricity usage
-        // should be coming down...
-        LocalDate d = LocalDate.of(2022, 8, 1);
-        for (int i = 0; i < utilityReadings.size(); i++)
-        {
-            UtilityField uf = utilityReadings.get(i);
-            if (uf.date.compareTo(d) > 0)	// After 1st August, so more normal usage!
+     * which months we use most/least energy. Only days after we moved in
+     * are counted - see UtilityAggregates.
+     *
+     * @return the number of rows written - 0 if the file was already up
+     *         to date
+     */
+
+    public int printPerMonthReadings(String filename)
+    {
+        long hash = contentHash();
+        if (upToDate(filename, hash))
+        {
+            return 0;
+        }
+        boolean ok = false;
+        UtilityAggregates.Rollup moy = aggregates().monthOfYear;
+        try (ReportWriter stream = openReport(outputDirectory + filename))
+        {
+            stream.printf("#    Gas Used  Elec Used     £Gas    £Elec   £Total\n" +
+                          "#-------------------------------------------------------\n");
+            for (int i = 1; i <= 12; i++)
             {
-                int month = uf.date.getMonthValue(); // 1..12
-                
-                NumMonths[month]++;
-                MonthlyUsage[month].gasUsed   += uf.gasUsed;
-                MonthlyUsage[month].elecUsed  += uf.elecUsed;
-                MonthlyUsage[month].gascost   += uf.gascost;
-                MonthlyUsage[month].eleccost  += uf.eleccost;
-                MonthlyUsage[month].totalcost += uf.totalcost;
+                averageLine(stream, moy, i, 2);
             }
+            ok = checkReport(stream, filename);
         }
-        try
+        catch (FileNotFoundException e)
         {
-            PrintStream stream = new PrintStream("/home/cmb/misc/Home/StationRoad/Utilities/GeneratedFiles/DaysOfWeek.dat");
+            // Print an error message, but otherwise do nothing
+            System.out.printf("Unable to open '%s' for writing\n", filename);
+        }
+        if (! ok)
+        {
+            return 0;
+        }
+        written(filename, hash);
+        return 12;
+    }
 
-            stream.printf("#   Gas Used  Elec Used     £Gas    £Elec   £Total\n" +
-                          "#------------------------------------------------------\n");
-            for (int i = 1; i <=7; i++)
+    /**********************************************************************
+     * Print to file for plotting the average load profile - electricity
+     * and gas used in each half hour of the day, averaged over all the
+     * days of half-hourly data. Only for data set from intervals.
+     */
+
+    public void printLoadProfile(String filename)
+    {
+        if ((elecIntervals == null) || (gasIntervals == null))
+        {
+            System.out.println("WARNING: no half-hourly data present\n");
+            return;
+        }
+        double[] elec = elecIntervals.loadProfile(Integer.MIN_VALUE, Integer.MAX_VALUE);
+        double[] gas  = gasIntervals.loadProfile(Integer.MIN_VALUE, Integer.MAX_VALUE);
+        try (ReportWriter stream = openReport(outputDirectory + filename))
+        {
+            stream.printf("# Time  Elec Used  Gas Used\n" +
+                          "#--------------------------\n");
+            for (int s = 0; s < IntervalData.SLOTS; s++)
             {
-                stream.printf("%d %10.3f %10.3f %8.2f %8.2f %8.2f\n", i,
-                              MonthlyUsage[i].gasUsed   / NumMonths[i],
-                              MonthlyUsage[i].elecUsed  / NumMonths[i],
-                              MonthlyUsage[i].gascost   / NumMonths[i],
-                              MonthlyUsage[i].eleccost  / NumMonths[i],
-                              MonthlyUsage[i].totalcost / NumMonths[i]);
+                stream.zeroPadded(s / 2, 2).put(':').zeroPadded((s % 2) * 30, 2).put(' ')
+                      .fixed(elec[s], 10, 4).put(' ').fixed(gas[s], 9, 4).endLine();
             }
-            stream.close();
+            checkReport(stream, filename);
         }
         catch (FileNotFoundException e)
         {
             // Print an error message, but otherwise do nothing
-            System.out.println("Unable to open 'DaysOfWeek.dat' for writing");
+            System.out.printf("Unable to open '%s' for writing\n", filename);
         }
     }
-    
+
     /**********************************************************************
      * Print to file for plotting the year-on-year daily costs, so can plot
      * comparative year figures. Each year is output as a separate data
      * file.
+     *
+     * @return the number of rows written, over all the years - 0 if the
+     *         files were already up to date
      */
 
-    public void printYearOnYearCosts(String filenameBase)
+    public int printYearOnYearCosts(String filenameBase)
     {
-	// The previous data point - if we encounter a new value then we have
-        // started a new year, so need to close previous and open new file.
-        int year = 0, prevYear = 2021;
-        PrintStream stream = null;
+        return printYearOnYearCosts(filenameBase, Integer.MIN_VALUE);
+    }
+
+    /**********************************************************************
+     * As printYearOnYearCosts(filenameBase), but only (re)writing the data
+     * files for the given year onwards - for when only recent days have
+     * changed.
+     *
+     * @return the number of rows written, over all the years
+     */
+
+    public int printYearOnYearCosts(String filenameBase, int fromYear)
+    {
+        UtilityAggregates.Rollup years = aggregates().yearly;
+        int year = 0;
+        int rows = 0;
 
         try
         {
-            for (int i = 0; i < utilityReadings.size(); i++)
+            for (int b = 0; b < years.count; b++)
             {
-                UtilityField uf = utilityReadings.get(i);
-                year = uf.date.getYear();
-                if (prevYear != year)
+                year = years.key[b];
+                if (year < fromYear)
+                {
+                    continue;
+                }
+                String filename = filenameBase + year + ".dat";
+                int first = years.start[b], last = first + years.days[b];
+                int y = year;
+                IntToLongFunction prefix = n -> ReportCache.mix(ReportCache.hash(columns, first, first + n), y);
+                long hash = prefix.applyAsLong(last - first);
+                if (upToDate(filename, hash))
                 {
-                    if (stream != null)
+                    continue;			// Usually every year but the last
+                }
+                int keep = rowsUnchanged(filename, last - first, prefix);
+                boolean ok;
+                try (ReportWriter stream = openReport(outputDirectory + filename, keep > 0))
+                {
+                    if (keep == 0)
                     {
-                        stream.close();
+                        yearHeader(stream, year);
                     }
-                    stream = new PrintStream(GENDIRECTORY + filenameBase + year + ".dat");
-                    stream.printf("# Costs and Usage for %d, against day of the year\n" +
-                                  "#\n" +
-                                  "# Day Gas Used  Elec Used   £Gas   £Elec £Total\n" +
-                                  "#-----------------------------------------------\n", year);
-                }
-                int day = uf.date.getDayOfYear();
-                stream.printf("%3d %10.3f %10.3f %6.2f %6.2f %6.2f\n",
-                              day, uf.gasUsed, uf.elecUsed, uf.gascost, uf.eleccost, uf.totalcost);
 
-                prevYear = year;
+                    int firstOfYear = EpochDays.of(year, 1, 1) - 1;
+                    for (int i = first + keep; i < last; i++)
+                    {
+                        yearLine(stream, firstOfYear, columns, i);
+                    }
+                    ok = checkReport(stream, filename);
+                }
+                if (ok)
+                {
+                    written(filename, hash, last - first);
+                    rows += last - first - keep;
+                }
             }
-            stream.close();
         }
         catch (FileNotFoundException e)
         {
             // Print an error message, but otherwise do nothing
             System.out.println("Unable to open 'Year" + year + ".dat' for writing");
         }
-        //--------------------------------------------------------------
-        // Now generate the plot file...
-        try
+
+        // The plot file only changes with the last year, and where the
+        // year files are
+        File plot = new File(plotDirectory + filenameBase + "ly.plot");
+        long hash = ReportCache.mix(ReportCache.mix(ReportCache.mix(ReportCache.VERSION, year),
+                                                    outputDirectory), filenameBase);
+        if ((cache != null) && cache.unchanged(plot, hash))
+        {
+            return rows;
+        }
+        if (printYearPlot(outputDirectory, plotDirectory, filenameBase, year) && (cache != null))
+        {
+            cache.record(plot, hash);
+        }
+        return rows;
+    }
+
+    /**********************************************************************
+     * Write the gnuplot file comparing the years written by
+     * printYearOnYearCosts(), from 2022 up to the last year there is data
+     * for.
+     *
+     * @param outputDirectory, where the year files are
+     * @param plotDirectory, where the plot file goes
+     * @param filenameBase, of the year files
+     * @param year, the last year written
+     * @return true if it was written without error
+     */
+
+    static boolean printYearPlot(String outputDirectory, String plotDirectory, String filenameBase, int year)
+    {
+        try (ReportWriter stream = openReport(plotDirectory + filenameBase + "ly.plot"))
         {
-            stream = new PrintStream(DIRECTORY + filenameBase + "ly.plot");
             // File header first
             stream.printf("#----------------------------------------------------------------------\n" +
                           "# GENERATED BY meterprocess PROGRAM - do not edit\n" +
@@ -592,7 +1226,7 @@ public class UtilityData
             for (int i = 2022; i <= year; i++)
             {
                 stream.printf("    \"%s%s%d.dat\" using 1:4 with lines title \"%d\"%s%s\n",
-                              GENDIRECTORY, filenameBase, i, i,
+                              outputDirectory, filenameBase, i, i,
                               (i == (year-1)) ? " ls 1" : "", // Last but one year, linestyle 1
                               (i == year) ? " ls 2" : ",\\"); // Last year, linestyle 2
             }
@@ -611,7 +1245,7 @@ public class UtilityData
             for (int i = 2022; i <= year; i++)
             {
                 stream.printf("    \"%s%s%d.dat\" using 1:5 with lines title \"%d\"%s%s\n",
-                              GENDIRECTORY, filenameBase, i, i, 
+                              outputDirectory, filenameBase, i, i, 
                               (i == (year-1)) ? " ls 1" : "", // Last but one year, linestyle 1
                               (i == year) ? " ls 2" : ",\\"); // Last year, linestyle 2
             }
@@ -630,7 +1264,7 @@ public class UtilityData
             for (int i = 2022; i <= year; i++)
             {
                 stream.printf("    \"%s%s%d.dat\" using 1:6 with lines title \"%d\"%s%s\n",
-                              GENDIRECTORY, filenameBase, i, i, 
+                              outputDirectory, filenameBase, i, i, 
                               (i == (year-1)) ? " ls 1" : "", // Last but one year, linestyle 1
                               (i == year) ? " ls 2" : ",\\"); // Last year, linestyle 2
             }
@@ -649,7 +1283,7 @@ public class UtilityData
             for (int i = 2022; i <= year; i++)
             {
                 stream.printf("    \"%s%s%d.dat\" using 1:2 with lines title \"%d\"%s%s\n",
-                              GENDIRECTORY, filenameBase, i, i, 
+                              outputDirectory, filenameBase, i, i, 
                               (i == (year-1)) ? " ls 1" : "", // Last but one year, linestyle 1
                               (i == year) ? " ls 2" : ",\\"); // Last year, linestyle 2
             }
@@ -668,53 +1302,199 @@ public class UtilityData
             for (int i = 2022; i <= year; i++)
             {
                 stream.printf("    \"%s%s%d.dat\" using 1:3 with lines title \"%d\"%s%s\n",
-                              GENDIRECTORY, filenameBase, i, i, 
+                              outputDirectory, filenameBase, i, i, 
                               (i == (year-1)) ? " ls 1" : "", // Last but one year, linestyle 1
                               (i == year) ? " ls 2" : ",\\"); // Last year, linestyle 2
             }
-            stream.close();
+            return checkReport(stream, filenameBase + "ly.plot");
         }
         catch (FileNotFoundException e)
         {
             // Print an error message, but otherwise do nothing
             System.out.println("Unable to open 'Yearly.plot' for writing");
+            return false;
         }
     }
     
     /**********************************************************************
      * Given a populated set of meter readings, run through and add
-     * interpolated readings where there are any gaps.
+     * interpolated readings where there are any gaps. The filled in series
+     * is built in one pass into new columns, sized for every day from the
+     * first reading to the last.
      */
 
     public void interpolateReadings()
     {
-        if (utilityReadings.size() < 2)
+        if (columns.size < 2)
         {
             return;	// Bail if not enough meter reading entries
         }
-        int size = utilityReadings.size();
+        Stages.Stage stage = Stages.start("interpolate");
+        int size = columns.size;
+        UtilityColumns filled = new UtilityColumns(columns.day[size-1] - columns.day[0] + 1);
+
+        filled.append(columns.day[0], columns.elecMeter[0], columns.gasMeter[0]);
+        filled.synthetic[0] = columns.synthetic[0];
         for (int i = 1; i < size; i++)
         {
-            UtilityField uf1, uf2;
-            
-            uf1 = utilityReadings.get(i-1);
-            uf2 = utilityReadings.get(i);
-            LocalDate d1 = uf1.date;
-            LocalDate d2 = uf2.date;
-            long gap = ChronoUnit.DAYS.between(d1, d2) - 1;
-            if (gap > 0)
+            fillGap(filled, columns.day[i-1], columns.elecMeter[i-1], columns.gasMeter[i-1],
+                    columns.day[i], columns.elecMeter[i], columns.gasMeter[i]);
+            filled.append(columns.day[i], columns.elecMeter[i], columns.gasMeter[i]);
+            filled.synthetic[filled.size-1] = columns.synthetic[i];
+        }
+        columns = filled;
+        aggregates = null;
+        index = null;
+        contentHash = null;
+        Stages.count("interpolate.synthetic", filled.size - size);
+        stage.end(filled.size);
+    }
+
+    /**********************************************************************
+     * Append interpolated readings for each day strictly between two real
+     * readings, marked as synthetic.
+     */
+
+    private static void fillGap(UtilityColumns filled, int d1, double elec1, double gas1,
+                                int d2, double elec2, double gas2)
+    {
+        long gap = d2 - d1 - 1;
+        for (int j = 1; j <= gap; j++)
+        {
+            filled.append(d1 + j,
+                          elec1 + ((elec2 - elec1)/(gap+1)) * j,
+                          gas1  + ((gas2  - gas1) /(gap+1)) * j);
+            filled.synthetic[filled.size-1] = true;
+        }
+    }
+
+    /**********************************************************************
+     * Incremental update - add the readings in a file to data that has
+     * already been interpolated and costed, without redoing the whole
+     * history. Readings after the last date held are interpolated from
+     * the last (real) reading, and only the new days have their usage and
+     * costs calculated and are added into the aggregates. Readings for
+     * dates already held are ignored if they match what is held; if any
+     * differ, or fall on an interpolated day, everything is recalculated.
+     *
+     * @param A file object from which to read data
+     * @return index of the first day whose values changed; size() if none
+     * @throws IOException if the file can't be read
+     */
+
+    public int appendReadingsFromFile(File f) throws IOException
+    {
+        return appendRun(readingsRunFromFile(f));
+    }
+
+    /**********************************************************************
+     * Incremental update with a single reading - see appendReadingsFromFile
+     *
+     * @param LocalDate this reading on
+     * @param double electricity meter reading
+     * @param double gas meter reading
+     * @return index of the first day whose values changed; size() if none
+     */
+
+    public int appendReading(LocalDate d, double elecMeter, double gasMeter)
+    {
+        return appendRun(new Run("appended reading", new int[] { (int) d.toEpochDay() },
+                                 new double[] { elecMeter }, new double[] { gasMeter }, 1));
+    }
+
+    /**********************************************************************
+     * Incremental update with readings already read in - see
+     * appendReadingsFromFile
+     *
+     * @param name, where the readings came from, for warnings
+     * @param days, epoch day of each reading, in the order read
+     * @param elec, electricity meter readings
+     * @param gas, gas meter readings
+     * @param count, number of readings
+     * @return index of the first day whose values changed; size() if none
+     */
+
+    public int appendReadings(String name, int[] days, double[] elec, double[] gas, int count)
+    {
+        return appendRun(sortedRun(new Run(name, days.clone(), elec.clone(), gas.clone(), count)));
+    }
+
+    private int appendRun(Run run)
+    {
+        int size = columns.size;
+        int i = 0;
+
+        //------------------------------------------------------------------
+        // Readings on or before the last date held must already be there
+
+        while ((size > 0) && (i < run.count) && (run.days[i] <= columns.day[size-1]))
+        {
+            int k = columns.indexOf(run.days[i]);
+            if ((k < 0) || columns.synthetic[k] ||
+                (columns.elecMeter[k] != run.elec[i]) || (columns.gasMeter[k] != run.gas[i]))
             {
-                for (int j = 1; j <= gap; j++)
-                {
-                    UtilityField uf3 = new UtilityField();
-                    uf3.date = d1.plusDays(j);
-                    uf3.gasMeter  = uf1.gasMeter  + ((uf2.gasMeter  - uf1.gasMeter)/(gap+1))  * j;
-                    uf3.elecMeter = uf1.elecMeter + ((uf2.elecMeter - uf1.elecMeter)/(gap+1)) * j;
-                    utilityReadings.add(uf3);
-                }
+                recalculateWith(run);
+                return 0;
+            }
+            i++;
+        }
+        if (size == 0)
+        {
+            recalculateWith(run);
+            return 0;
+        }
+
+        //------------------------------------------------------------------
+        // The rest are new - fill in the gaps and cost just those days
+
+        for (; i < run.count; i++)
+        {
+            int last = columns.size - 1;
+            fillGap(columns, columns.day[last], columns.elecMeter[last], columns.gasMeter[last],
+                    run.days[i], run.elec[i], run.gas[i]);
+            columns.append(run.days[i], run.elec[i], run.gas[i]);
+        }
+        if (columns.size > size)
+        {
+            calculateCostsFrom(size);
+            if (aggregates != null)
+            {
+                aggregates.extend(columns, size);
             }
+            if (index != null)
+            {
+                index.update(columns, size);
+            }
+            contentHash = null;
         }
-        Collections.sort(utilityReadings);	// Make sure the entries are date sorted
+        return size;
+    }
+
+    /**********************************************************************
+     * Full recalculation - merge new readings with the real (not
+     * interpolated) readings held, then interpolate and cost from scratch.
+     */
+
+    private void recalculateWith(Run run)
+    {
+        Run real = new Run("existing readings", new int[columns.size],
+                           new double[columns.size], new double[columns.size], 0);
+        for (int i = 0; i < columns.size; i++)
+        {
+            if (! columns.synthetic[i])
+            {
+                real.days[real.count] = columns.day[i];
+                real.elec[real.count] = columns.elecMeter[i];
+                real.gas[real.count]  = columns.gasMeter[i];
+                real.count++;
+            }
+        }
+        ArrayList<Run> runs = new ArrayList<>();
+        runs.add(real);
+        runs.add(run);
+        columns = mergeRuns(runs);
+        interpolateReadings();
+        calculateDailyCosts();
     }
 
     /**********************************************************************
@@ -725,66 +1505,120 @@ public class UtilityData
 
     public void calculateDailyCosts()
     {
-        if (utilityReadings.size() == 0)
+        if (columns.size == 0)
         {
             return;
         }
+        aggregates = null;
+        index = null;
+        contentHash = null;
+        calculateCostsFrom(0);
+    }
+
+    /**********************************************************************
+     * Calculate the derived values for days 'from' onwards, leaving earlier
+     * days as they are.
+     *
+     * @param index of first day to calculate
+     */
+
+    private void calculateCostsFrom(int from)
+    {
+        Stages.Stage stage = Stages.start("costs");
+        int size = columns.size;
+        double[] elecUsed = columns.elecUsed;
 
         //------------------------------------------------------------------
-        // First calculate the daily usage - difference between "today"'s
-        // readings and those from "yesterday"....
-        
-        UtilityField prev = utilityReadings.get(0);
-        prev.gasUsed  = 0.0;
-        prev.elecUsed = 0.0;
-        
-        for (int i = 1; i < utilityReadings.size(); i++)
-        {
-            UtilityField current = utilityReadings.get(i);
+        // First calculate the daily usage
 
-            current.gasUsed  = current.gasMeter  - prev.gasMeter;
-            current.elecUsed = current.elecMeter - prev.elecMeter;
-            prev = current;
-        }
+        calculateUsageFrom(from);
 
         //------------------------------------------------------------------
-        // Next populate the rates fields and the costs
+        // Next populate the rates fields - all in one pass over the rates -
+        // and then the costs
+
+        ratesData.resolveRates(columns.day, from, size,
+                               columns.gasstanding, columns.gasunitrate,
+                               columns.elecstanding, columns.elecunitrate);
+        Stages.count("costs.rateLookups", size - from);
+
+        CostKernel.flatCosts(columns, from, size);
+
+        // Half-hourly electricity on time of use prices is costed half
+        // hour by half hour instead; its unit rate becomes the day's
+        // average price
+        if ((elecIntervals != null) && ratesData.hasTimeOfUse())
+        {
+            double[] elecUnitCost = new double[size - from];	// Day i at i - from
+            CostKernel.unitCosts(elecIntervals, ratesData, columns.day, from, size,
+                                 columns.elecunitrate, elecUnitCost);
+            for (int i = from; i < size; i++)
+            {
+                double unitCost = elecUnitCost[i - from];
+                if (Double.isNaN(unitCost))
+                {
+                    continue;
+                }
+                columns.eleccost[i]  = VAT * ( columns.elecstanding[i] + unitCost );
+                columns.totalcost[i] = columns.gascost[i] + columns.eleccost[i];
+                if (elecUsed[i] != 0.0)
+                {
+                    columns.elecunitrate[i] = unitCost / elecUsed[i];
+                }
+            }
+            Stages.count("costs.timeOfUseDays", size - from);
+        }
+        stage.end(size - from);
+    }
+
+    // Calculate the daily usage for days 'from' onwards - difference
+    // between "today"'s readings and those from "yesterday"....
+    private void calculateUsageFrom(int from)
+    {
+        int size = columns.size;
+        double[] gasMeter = columns.gasMeter, elecMeter = columns.elecMeter;
+        double[] gasUsed  = columns.gasUsed,  elecUsed  = columns.elecUsed;
 
-        for (int i = 0; i < utilityReadings.size(); i++)
+        if (from == 0)
         {
-            UtilityField current = utilityReadings.get(i);
+            gasUsed[0]  = 0.0;
+            elecUsed[0] = 0.0;
+        }
+        CostKernel.usage(gasMeter,  gasUsed,  Math.max(from, 1), size);
+        CostKernel.usage(elecMeter, elecUsed, Math.max(from, 1), size);
 
-            current.gasstanding  = ratesData.getGasStanding(current.date);
-            current.gasunitrate  = ratesData.getGasUnit(current.date);
-            current.elecstanding = ratesData.getElecStanding(current.date);
-            current.elecunitrate = ratesData.getElecUnit(current.date);
+        // Where there is half-hourly data, the day's usage is its total
+        if (elecIntervals != null)
+        {
+            rollUp(elecIntervals, elecUsed, from);
+            rollUp(gasIntervals, gasUsed, from);
+        }
+    }
 
-            current.gascost  = VAT * ( current.gasstanding  + current.gasUsed  * current.gasunitrate * GASCONVERSION );
-            current.eleccost = VAT * ( current.elecstanding + current.elecUsed * current.elecunitrate );
-            current.totalcost = current.gascost + current.eleccost;
+    // Set the usage of each day from 'from' onwards to that day's interval
+    // total, or to none if the day has no interval data - its meter
+    // readings are interpolated across the gap, and the days either side
+    // have already counted everything the half hours recorded
+    private void rollUp(IntervalData intervals, double[] used, int from)
+    {
+        for (int i = from; i < columns.size; i++)
+        {
+            int k = intervals.indexOf(columns.day[i]);
+            used[i] = (k >= 0) ? intervals.total[k] : 0.0;
         }
     }
-    
+
     /**********************************************************************
-     * Find the index in meter readings, given date. Inefficient linear search!
+     * Find the index in meter readings, given date. When every day is
+     * present (after interpolation) this is worked out directly from the
+     * first date; otherwise it is a binary search.
      *
-     * @param A date to look for the index in ArrayList where readings etc stored
+     * @param A date to look for the index in columns where readings etc stored
      * @return A positive integer if an index found, and -1 if not
      */
 
     public int indexFromDate(LocalDate d)
     {
-        for (int i = 0; i < utilityReadings.size(); i++)
-        {
-            if (d.isEqual(utilityReadings.get(i).date))
-            {
-                return i;
-            }
-            if (d.isBefore(utilityReadings.get(i).date))
-            {
-                return -1;
-            }
-        }
-        return -1;
+        return columns.indexOf(d.toEpochDay());
     }
 }
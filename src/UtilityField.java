@@ -1,6 +1,8 @@
 /**************************************************************************
  * Class UtilityField.java to provide a 'struct' like multi-element datum
- * for use by the UtilityData class
+ * for use by the UtilityData class. UtilityData itself now stores its data
+ * column by column (see UtilityColumns); a UtilityField is built on demand
+ * as a copy of one day's values.
  *
  * @author Colin Brough
  * @version Dev_01
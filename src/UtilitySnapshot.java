@@ -0,0 +1,212 @@
+/**************************************************************************
+ * Class UtilitySnapshot.java to save fully calculated UtilityData, with its
+ * RatesData, to a compact binary file, and load it back again through a
+ * memory map - so a run whose inputs haven't changed can skip parsing,
+ * interpolation and costing and go straight to the reports.
+ *
+ * Each snapshot records a fingerprint of the input files (their names,
+ * lengths and contents) plus the cost constants it was calculated with;
+ * load() refuses a snapshot whose fingerprint doesn't match, so changing
+ * any reading or rate invalidates it automatically.
+ *
+ * File layout, big-endian:
+ *
+ *   "MPSNAP\r\n"  magic, 8 bytes
+ *   int           format version
+ *   long          fingerprint
+ *   int           number of rates, r
+ *   int           number of days, n
+ *   r x { int day, 4 x double rates }
+ *   padding to a multiple of 8 bytes
+ *   n x double    for each of the 11 double columns, in UtilityColumns order
+ *   n x int       epoch days
+ *   n x byte      synthetic flags
+ *
+ * The columns are copied out of the mapped file in bulk, one array at a
+ * time, rather than decoded record by record.
+ *
+ * @author Colin Brough
+ * @version Dev_01
+ */
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.LocalDate;
+import java.util.zip.CRC32;
+
+public class UtilitySnapshot
+{
+    static final byte[] MAGIC = "MPSNAP\r\n".getBytes(StandardCharsets.US_ASCII);
+    static final int VERSION = 1;
+
+    // Size of everything before the rates
+    private static final int HEADERSIZE = 8 + 4 + 8 + 4 + 4;
+    // Size of one rate entry
+    private static final int RATESIZE = 4 + 4 * 8;
+
+    /**********************************************************************
+     * Work out a fingerprint of the given input files - their names,
+     * lengths and contents - and of the constants used to calculate costs.
+     *
+     * @param inputs, the files the data is calculated from
+     * @return 64 bit fingerprint
+     * @throws IOException if any input can't be read
+     */
+
+    public static long fingerprint(File... inputs) throws IOException
+    {
+        long h = VERSION;
+        h = h * 1000003 ^ Double.doubleToLongBits(UtilityData.GASCONVERSION);
+        h = h * 1000003 ^ Double.doubleToLongBits(UtilityData.VAT);
+        for (File f : inputs)
+        {
+            CRC32 crc = new CRC32();
+            crc.update(f.getPath().getBytes(StandardCharsets.UTF_8));
+            long length;
+            try (FileChannel ch = FileChannel.open(f.toPath(), StandardOpenOption.READ))
+            {
+                length = ch.size();
+                crc.update(ch.map(FileChannel.MapMode.READ_ONLY, 0, length));
+            }
+            h = h * 1000003 ^ ((crc.getValue() << 32) | (length & 0xffffffffL));
+        }
+        return h;
+    }
+
+    /**********************************************************************
+     * Save calculated data, and its rates, to a snapshot file. The file is
+     * written under a temporary name and then renamed, so a reader never
+     * sees half a snapshot.
+     *
+     * @param f, the snapshot file
+     * @param u, the data to save
+     * @param fingerprint, of the inputs u was calculated from
+     * @throws IOException if the file can't be written
+     */
+
+    public static void save(File f, UtilityData u, long fingerprint) throws IOException
+    {
+        UtilityColumns c = u.columns();
+        RatesData rates = u.rates();
+        int n = c.size, r = rates.size();
+
+        long ratesEnd = HEADERSIZE + (long) r * RATESIZE;
+        long columnsStart = (ratesEnd + 7) & ~7L;
+        long length = columnsStart + 11L * 8 * n + 4L * n + n;
+
+        Path tmp = Paths.get(f.getPath() + ".tmp");
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                                               StandardOpenOption.TRUNCATE_EXISTING,
+                                               StandardOpenOption.READ, StandardOpenOption.WRITE))
+        {
+            MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_WRITE, 0, length);
+            buf.put(MAGIC);
+            buf.putInt(VERSION);
+            buf.putLong(fingerprint);
+            buf.putInt(r);
+            buf.putInt(n);
+            for (int i = 0; i < r; i++)
+            {
+                RatesField rf = rates.get(i);
+                buf.putInt((int) rf.date.toEpochDay());
+                buf.putDouble(rf.gasstanding);
+                buf.putDouble(rf.gasunitrate);
+                buf.putDouble(rf.elecstanding);
+                buf.putDouble(rf.elecunitrate);
+            }
+            buf.position((int) columnsStart);
+            for (double[] column : doubleColumns(c))
+            {
+                buf.asDoubleBuffer().put(column, 0, n);
+                buf.position(buf.position() + 8 * n);
+            }
+            buf.asIntBuffer().put(c.day, 0, n);
+            buf.position(buf.position() + 4 * n);
+            for (int i = 0; i < n; i++)
+            {
+                buf.put((byte) (c.synthetic[i] ? 1 : 0));
+            }
+            buf.force();
+        }
+        try
+        {
+            Files.move(tmp, f.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                       StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (AtomicMoveNotSupportedException e)
+        {
+            Files.move(tmp, f.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**********************************************************************
+     * Load a snapshot, if there is a valid one for the given fingerprint.
+     *
+     * @param f, the snapshot file
+     * @param fingerprint, of the current inputs
+     * @return the saved data with its rates, or null if the snapshot is
+     *         missing, unreadable, from another format version or stale
+     */
+
+    public static UtilityData load(File f, long fingerprint)
+    {
+        if (! f.isFile())
+        {
+            return null;
+        }
+        try (FileChannel ch = FileChannel.open(f.toPath(), StandardOpenOption.READ))
+        {
+            MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+            byte[] magic = new byte[MAGIC.length];
+            buf.get(magic);
+            if (! java.util.Arrays.equals(magic, MAGIC) || (buf.getInt() != VERSION) ||
+                (buf.getLong() != fingerprint))
+            {
+                return null;
+            }
+            int r = buf.getInt();
+            int n = buf.getInt();
+
+            RatesData rates = new RatesData();
+            for (int i = 0; i < r; i++)
+            {
+                int day = buf.getInt();
+                double gs = buf.getDouble(), gu = buf.getDouble();
+                double es = buf.getDouble(), eu = buf.getDouble();
+                rates.addRate(gs, gu, es, eu, LocalDate.ofEpochDay(day));
+            }
+            buf.position((buf.position() + 7) & ~7);
+
+            UtilityColumns c = new UtilityColumns(n);
+            for (double[] column : doubleColumns(c))
+            {
+                buf.asDoubleBuffer().get(column, 0, n);
+                buf.position(buf.position() + 8 * n);
+            }
+            buf.asIntBuffer().get(c.day, 0, n);
+            buf.position(buf.position() + 4 * n);
+            for (int i = 0; i < n; i++)
+            {
+                c.synthetic[i] = (buf.get() != 0);
+            }
+            c.size = n;
+            return new UtilityData(c, rates);
+        }
+        catch (IOException | BufferUnderflowException | IllegalArgumentException e)
+        {
+            System.out.println("WARNING: ignoring unreadable snapshot " + f.getName() + ": " + e);
+            return null;
+        }
+    }
+
+    // The double columns, in the order they are saved
+    private static double[][] doubleColumns(UtilityColumns c)
+    {
+        return new double[][] { c.gasMeter, c.elecMeter, c.gasUsed, c.elecUsed,
+                                c.gasstanding, c.gasunitrate, c.elecstanding, c.elecunitrate,
+                                c.gascost, c.eleccost, c.totalcost };
+    }
+}
@@ -0,0 +1,81 @@
+/**************************************************************************
+ * Class MeterDaemonTailTest.java to check that the daemon only reads whole
+ * lines added to a readings file - so a reading saved in two writes, the
+ * first without its newline, is read once, complete, and not as the part
+ * written first. Run by 'make test'.
+ *
+ * Prints each failure, and exits non-zero if there were any.
+ *
+ * @author Colin Brough
+ * @version Dev_01
+ */
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+
+public class MeterDaemonTailTest
+{
+    private static int failures;
+
+    public static void main(String[] args) throws IOException
+    {
+        File f = File.createTempFile("MeterDaemonTailTest", ".txt");
+        try
+        {
+            // A line added in two writes, after everything was read
+            write(f, false, "01/01/2026 58000.0 13700.0\n");
+            MeterDaemon.Tail tail = new MeterDaemon.Tail(f);
+            tail.mark();
+            write(f, true, "02/01/2026 58045.0 137");
+            check("first half", tail.read(), 0, 0, 0);
+            write(f, true, "20.5\n");
+            check("second half", tail.read(), 1, 58045.0, 13720.5);
+            check("nothing added", tail.read(), 0, 0, 0);
+
+            // A line part written when the file is first read in full
+            write(f, false, "01/01/2026 58000.0 13700.0\n02/01/2026 58045.0 137");
+            tail = new MeterDaemon.Tail(f);
+            tail.mark();
+            write(f, true, "20.5\r\n03/01/2026 58090.0 13741.0\n");
+            check("completed after mark", tail.read(), 2, 58045.0, 13720.5);
+        }
+        finally
+        {
+            f.delete();
+        }
+
+        System.out.printf("MeterDaemonTailTest: %d failures\n", failures);
+        System.exit((failures == 0) ? 0 : 1);
+    }
+
+    private static void write(File f, boolean append, String s) throws IOException
+    {
+        try (OutputStream out = new FileOutputStream(f, append))
+        {
+            out.write(s.getBytes(StandardCharsets.US_ASCII));
+        }
+    }
+
+    // Check the number of readings read, and the first one - on 2/1/2026
+    private static void check(String what, MeterDaemon.Tail.Readings r, int count, double elec, double gas)
+    {
+        if (r == null)
+        {
+            System.out.printf("%s: file seen as changed before its end\n", what);
+            failures++;
+        }
+        else if (r.count != count)
+        {
+            System.out.printf("%s: read %d readings, expected %d\n", what, r.count, count);
+            failures++;
+        }
+        else if ((count > 0) &&
+                 ((r.days[0] != LocalDate.of(2026, 1, 2).toEpochDay()) || (r.elec[0] != elec) || (r.gas[0] != gas)))
+        {
+            System.out.printf("%s: read %s %s %s, expected 2026-01-02 %s %s\n", what,
+                              LocalDate.ofEpochDay(r.days[0]), r.elec[0], r.gas[0], elec, gas);
+            failures++;
+        }
+    }
+}
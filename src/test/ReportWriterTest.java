@@ -0,0 +1,223 @@
+/**************************************************************************
+ * Class ReportWriterTest.java to check that ReportWriter's fields come out
+ * exactly as printf() would have written them, so switching the reports
+ * over to it changed nothing in the files. Run by 'make test'.
+ *
+ * Each field is written through a ReportWriter to a scratch file and
+ * compared with String.format() of the same value - for the widths and
+ * decimals the reports use, over zero and -0.0, negatives, values on and
+ * next to rounding ties, large values either side of the fast path's
+ * limit, non-finite values, and a spread of random ones. A locale that
+ * doesn't use '.' is tried too, as that goes the slow way throughout; and
+ * negative values written as the line fills its buffer, which must grow.
+ *
+ * Prints each mismatch, and exits non-zero if there were any.
+ *
+ * @author Colin Brough
+ * @version Dev_01
+ */
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.time.LocalDate;
+import java.util.*;
+
+public class ReportWriterTest
+{
+    // Field widths and decimals the reports use, as { width, decimals }
+    private static final int[][] FIXED = { { 1, 1 }, { 1, 3 }, { 1, 4 }, { 6, 2 }, { 7, 2 }, { 8, 2 },
+                                           { 8, 3 }, { 9, 3 }, { 9, 4 }, { 10, 3 }, { 10, 4 },
+                                           { 11, 3 }, { 1, 0 }, { 3, 9 } };
+    private static final int[] WIDTHS = { 1, 2, 3, 4, 6, 11 };
+
+    private static int checked;
+    private static int failures;
+
+    public static void main(String[] args) throws IOException
+    {
+        List<Double> values = doubles();
+        List<Long> longs = longs();
+
+        for (Locale locale : new Locale[] { Locale.ROOT, Locale.UK, Locale.GERMANY })
+        {
+            List<String> expected = new ArrayList<>();
+            File f = File.createTempFile("ReportWriterTest", ".dat");
+            try
+            {
+                try (ReportWriter w = new ReportWriter(f.getPath(), locale))
+                {
+                    for (int[] fd : FIXED)
+                    {
+                        for (double v : values)
+                        {
+                            w.fixed(v, fd[0], fd[1]).put('|').endLine();
+                            expected.add(String.format(locale, "%" + fd[0] + "." + fd[1] + "f", v) + "|");
+                        }
+                    }
+                    for (int width : WIDTHS)
+                    {
+                        for (long v : longs)
+                        {
+                            w.integer(v, width).put('|').zeroPadded(v, width).put('|').endLine();
+                            expected.add(String.format(locale, "%" + width + "d|%0" + width + "d", v, v) + "|");
+                        }
+                    }
+                    for (int day : days())
+                    {
+                        w.date(day).put('|').endLine();
+                        expected.add(String.format(locale, "%s", LocalDate.ofEpochDay(day)) + "|");
+                    }
+                }
+                compare(locale, expected, Files.readAllLines(f.toPath(), Charset.defaultCharset()));
+            }
+            finally
+            {
+                f.delete();
+            }
+        }
+        for (Locale locale : new Locale[] { Locale.ROOT, Locale.GERMANY })
+        {
+            for (int fill = 250; fill <= 260; fill++)
+            {
+                boundary(locale, fill);
+            }
+        }
+
+        System.out.printf("ReportWriterTest: %d fields checked, %d mismatches\n", checked, failures);
+        System.exit((failures == 0) ? 0 : 1);
+    }
+
+    // Write a negative integer and a negative fixed point value after
+    // 'fill' characters, each with a new writer - so its line buffer is
+    // still the size it starts at, and may fill at the sign
+    private static void boundary(Locale locale, int fill) throws IOException
+    {
+        String text = new String(new char[fill]).replace('\0', 'x');
+        List<String> expected = Arrays.asList(text + String.format(locale, "%1d", -7) + "|",
+                                              text + String.format(locale, "%1.1f", -1.5) + "|");
+        List<String> actual = new ArrayList<>();
+        File f = File.createTempFile("ReportWriterTest", ".dat");
+        try
+        {
+            for (int i = 0; i < 2; i++)
+            {
+                try (ReportWriter w = new ReportWriter(f.getPath(), locale))
+                {
+                    w.text(text);
+                    if (i == 0)
+                    {
+                        w.integer(-7, 1);
+                    }
+                    else
+                    {
+                        w.fixed(-1.5, 1, 1);
+                    }
+                    w.put('|').endLine();
+                }
+                catch (RuntimeException e)
+                {
+                    System.out.printf("%s: %d characters then a negative value: %s\n", locale, fill, e);
+                    failures++;
+                }
+                actual.addAll(Files.readAllLines(f.toPath(), Charset.defaultCharset()));
+            }
+        }
+        finally
+        {
+            f.delete();
+        }
+        compare(locale, expected, actual);
+    }
+
+    // Compare the lines written with those expected, noting any that differ
+    private static void compare(Locale locale, List<String> expected, List<String> actual)
+    {
+        if (actual.size() != expected.size())
+        {
+            System.out.printf("%s: wrote %d lines, expected %d\n", locale, actual.size(), expected.size());
+            failures++;
+        }
+        for (int i = 0; i < Math.min(actual.size(), expected.size()); i++)
+        {
+            checked++;
+            if (! actual.get(i).equals(expected.get(i)))
+            {
+                System.out.printf("%s: got '%s', expected '%s'\n", locale, actual.get(i), expected.get(i));
+                failures++;
+            }
+        }
+    }
+
+    //----------------------------------------------------------------------
+    // The values to try
+
+    private static List<Double> doubles()
+    {
+        List<Double> values = new ArrayList<>(Arrays.asList(
+            0.0, -0.0, 1.0, -1.0, 0.5, -0.5, 1.5, 2.5, -2.5,
+            // Ties, and near ties, at the decimals used
+            0.05, 0.15, 0.25, 0.35, 0.005, 0.015, 0.025, 0.125, 0.0005, 0.00005,
+            1.005, -1.005, 2.675, -2.675, 1.0005, 1.00005, 0.045, 1.115, 8.345, 1234.5675,
+            0.0049999999, 0.0050000001, 0.9995, 0.99995, 9.9995, 99.995, -99.995, 999.9995,
+            // Small, and large either side of the fast path's limit
+            1e-10, -1e-10, 4.9e-324, 123456.789, -98765.4321,
+            1e6, 1e9, 1e12, 123456789012.3456, 1e14, 999999999999999.9, 1e15, 1e16, -1e16,
+            1e20, 1e300, Double.MAX_VALUE, -Double.MAX_VALUE,
+            Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY));
+
+        // Exact ties at each number of decimals, and the doubles either side
+        Random random = new Random(20240101);
+        for (int d = 0; d <= 9; d++)
+        {
+            for (int i = 0; i < 50; i++)
+            {
+                double tie = (random.nextInt(2000000) - 1000000 + 0.5) / Math.pow(10, d);
+                values.add(tie);
+                values.add(Math.nextUp(tie));
+                values.add(Math.nextDown(tie));
+            }
+        }
+        // The sort of values the reports hold - usage, costs and averages
+        for (int i = 0; i < 2000; i++)
+        {
+            values.add(random.nextDouble() * 100);
+            values.add(-random.nextDouble() * 10);
+            values.add(random.nextInt(100000) / 1000.0 / (1 + random.nextInt(31)));
+            values.add(random.nextGaussian() * 1e6);
+        }
+        return values;
+    }
+
+    private static List<Long> longs()
+    {
+        List<Long> values = new ArrayList<>(Arrays.asList(
+            0L, 1L, -1L, 9L, 10L, -10L, 99L, 100L, 365L, 2024L, -2024L, 99999L, 100000L,
+            Integer.MAX_VALUE + 0L, Integer.MIN_VALUE + 0L, Long.MAX_VALUE, Long.MIN_VALUE, Long.MIN_VALUE + 1));
+        Random random = new Random(7);
+        for (int i = 0; i < 200; i++)
+        {
+            values.add((long) random.nextInt(2000) - 1000);
+            values.add(random.nextLong());
+        }
+        return values;
+    }
+
+    private static List<Integer> days()
+    {
+        List<Integer> values = new ArrayList<>();
+        // Every day over the years the readings cover
+        for (int day = (int) LocalDate.of(1999, 12, 25).toEpochDay(); day <= LocalDate.of(2031, 1, 5).toEpochDay(); day++)
+        {
+            values.add(day);
+        }
+        // Outside four digit years, which go the slow way
+        for (LocalDate d : new LocalDate[] { LocalDate.of(1, 1, 1), LocalDate.of(9999, 12, 31),
+                                             LocalDate.of(0, 12, 31), LocalDate.of(10000, 1, 1),
+                                             LocalDate.of(-5, 6, 15), LocalDate.of(1970, 1, 1) })
+        {
+            values.add((int) d.toEpochDay());
+        }
+        return values;
+    }
+}